@@ -23,7 +23,7 @@ import android.annotation.TargetApi;
 import android.app.ActivityManager;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
-import android.app.usage.UsageStats;
+import android.app.usage.UsageEvents;
 import android.app.usage.UsageStatsManager;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -33,15 +33,13 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
 import android.widget.Toast;
 
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
 import javax.inject.Inject;
 
 import arun.com.chromer.R;
@@ -54,7 +52,7 @@ import static android.support.v4.app.NotificationCompat.PRIORITY_MIN;
 import static arun.com.chromer.shared.Constants.EXTRA_KEY_CLEAR_LAST_TOP_APP;
 
 public class AppDetectService extends BaseService {
-    // Gap at which we polling the system for current foreground app.
+    // Gap at which we polling the system for current foreground app, on devices without usage events.
     private static final int POLLING_INTERVAL = 400;
 
     private static final String CHANNEL_ID = "App detection service";
@@ -66,6 +64,9 @@ public class AppDetectService extends BaseService {
     private boolean stopPolling = false;
     // Detector to get current foreground app.
     private AppDetector appDetector = () -> "";
+    // Detector reading usage events, used instead of appDetector when the device has them.
+    @Nullable
+    private UsageEventsDetector usageEventsDetector;
     // Handler to run our polling.
     private final Handler detectorHandler = new Handler();
     // The runnable which runs out detector.
@@ -73,14 +74,23 @@ public class AppDetectService extends BaseService {
 
         @Override
         public void run() {
-            try {
-                final String packageName = appDetector.getForegroundPackage();
-                appDetectionManager.logPackage(packageName);
-            } catch (Exception e) {
-                Timber.e(e.toString());
+            final long delay;
+            if (usageEventsDetector != null) {
+                final long cpuStart = SystemClock.currentThreadTimeMillis();
+                final boolean changed = appDetectionManager.refresh();
+                usageEventsDetector.stats.cpuTimeMs.addAndGet(SystemClock.currentThreadTimeMillis() - cpuStart);
+                delay = usageEventsDetector.nextPollDelayMs(changed);
+            } else {
+                try {
+                    final String packageName = appDetector.getForegroundPackage();
+                    appDetectionManager.logPackage(packageName);
+                } catch (Exception e) {
+                    Timber.e(e.toString());
+                }
+                delay = POLLING_INTERVAL;
             }
             if (!stopPolling) {
-                detectorHandler.postDelayed(this, POLLING_INTERVAL);
+                detectorHandler.postDelayed(this, delay);
             }
         }
     };
@@ -122,7 +132,8 @@ public class AppDetectService extends BaseService {
 
         registerScreenReceiver();
         if (Utils.isLollipopAbove()) {
-            appDetector = new LollipopDetector();
+            usageEventsDetector = new UsageEventsDetector(new UsageEventsSource());
+            appDetectionManager.setDetector(usageEventsDetector);
         } else {
             appDetector = new PreLollipopDetector();
         }
@@ -164,7 +175,11 @@ public class AppDetectService extends BaseService {
         } catch (IllegalStateException e) {
             Timber.e(e);
         }
+        appDetectionManager.setDetector(null);
         appDetectionManager.clear();
+        if (usageEventsDetector != null) {
+            Timber.d("Usage events detection: %s", usageEventsDetector.stats);
+        }
         Timber.d("Destroying");
         super.onDestroy();
     }
@@ -176,6 +191,8 @@ public class AppDetectService extends BaseService {
 
     private void kickStartDetection() {
         Timber.d("Kick starting polling");
+        // Screen may have been turned on again before the last scheduled poll ran.
+        detectorHandler.removeCallbacks(appDetectorRunnable);
         detectorHandler.post(appDetectorRunnable);
     }
 
@@ -231,27 +248,20 @@ public class AppDetectService extends BaseService {
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
-    private class LollipopDetector implements AppDetector {
+    private class UsageEventsSource implements UsageEventsDetector.EventSource {
+        private final UsageStatsManager usageStatsManager = (UsageStatsManager) getSystemService(USAGE_STATS_SERVICE);
+        // Reused for every event, reads are serialized by the detector.
+        private final UsageEvents.Event event = new UsageEvents.Event();
 
-        @NonNull
         @Override
-        public String getForegroundPackage() {
-            final long time = System.currentTimeMillis();
-            final UsageStatsManager usageMan = (UsageStatsManager) getSystemService(USAGE_STATS_SERVICE);
-            final List<UsageStats> stats = usageMan.queryUsageStats(UsageStatsManager.INTERVAL_DAILY, time - 1000 * 3, time);
-
-            final SortedMap<Long, UsageStats> sortedMap = new TreeMap<>();
-            for (UsageStats usageStats : stats) {
-                if (usageStats != null) {
-                    sortedMap.put(usageStats.getLastTimeUsed(), usageStats);
+        public void read(long beginTime, long endTime, @NonNull UsageEventsDetector.EventSink sink) {
+            final UsageEvents events = usageStatsManager.queryEvents(beginTime, endTime);
+            while (events.hasNextEvent()) {
+                events.getNextEvent(event);
+                if (event.getEventType() == UsageEvents.Event.MOVE_TO_FOREGROUND) {
+                    sink.onForeground(event.getPackageName(), event.getTimeStamp());
                 }
             }
-            if (!sortedMap.isEmpty()) {
-                final UsageStats usageStats = sortedMap.get(sortedMap.lastKey());
-                return usageStats.getPackageName();
-            }
-            sortedMap.clear();
-            return "";
         }
     }
 }
@@ -20,10 +20,14 @@
 package arun.com.chromer.appdetect;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -33,55 +37,180 @@ import timber.log.Timber;
 
 /**
  * Created by Arunkumar on 21-01-2017.
+ * <p>
+ * Keeps the recent foreground app transitions in a fixed size ring buffer, so that the app that was
+ * in the foreground at a given time can be looked up without locking, even when detection lags
+ * behind the link being opened.
  */
 @Singleton
 public final class AppDetectionManager {
-    private final Context context;
+    // Number of transitions remembered, must be a power of two.
+    static final int HISTORY_SIZE = 32;
+    private static final int HISTORY_MASK = HISTORY_SIZE - 1;
 
-    // Last detected package name of app;
-    private String filteredPackage = "";
-    private String nonFilteredPackage = "";
+    private final Context context;
+    private final String ownPackage;
+
+    // Ring buffer of foreground transitions, slot for an index is index & HISTORY_MASK.
+    private final AtomicReferenceArray<Transition> history = new AtomicReferenceArray<>(HISTORY_SIZE);
+    // Index of the next transition to be written.
+    private final AtomicLong writeIndex = new AtomicLong();
+    // Transitions written before this index were cleared.
+    private volatile long historyFloor;
+
+    // Detector polled on demand while app detection runs, if the device has usage events.
+    @Nullable
+    private volatile UsageEventsDetector detector;
+
+    // Custom tab provider ignored by the filter, read from preferences only when it changed.
+    @Nullable
+    private volatile String customTabPackage;
+    private volatile boolean customTabPackageLoaded;
+    // Held here since shared preferences only keep weak references to listeners.
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener = (preferences, key) -> {
+        if (Preferences.PREFERRED_CUSTOM_TAB_PACKAGE.equals(key)) {
+            customTabPackageLoaded = false;
+        }
+    };
 
     @Inject
     public AppDetectionManager(@NonNull Context context) {
         this.context = context.getApplicationContext();
+        ownPackage = this.context.getPackageName();
+        Preferences.get(this.context).getDefaultSharedPreferences().registerOnSharedPreferenceChangeListener(preferenceListener);
     }
 
-    synchronized void logPackage(@Nullable String appPackage) {
+    void logPackage(@Nullable String appPackage) {
+        logPackage(appPackage, System.currentTimeMillis());
+    }
+
+    /**
+     * Records that {@code appPackage} came to the foreground at {@code timestamp}, unless it already
+     * was the last app recorded.
+     */
+    void logPackage(@Nullable String appPackage, long timestamp) {
         if (TextUtils.isEmpty(appPackage)) {
             return;
         }
-        if (!nonFilteredPackage.equalsIgnoreCase(appPackage) && nonFilterPackage(appPackage)) {
-            nonFilteredPackage = appPackage;
-        }
-        if (!filteredPackage.equalsIgnoreCase(appPackage) && filterPackage(appPackage)) {
-            filteredPackage = appPackage;
+        final Transition last = lastTransition();
+        if (last != null && last.packageName.equalsIgnoreCase(appPackage)) {
+            return;
         }
+        final long index = writeIndex.getAndIncrement();
+        history.set((int) (index & HISTORY_MASK), new Transition(appPackage, timestamp));
         Timber.d("Current package: %s", appPackage);
     }
 
-    public synchronized String getNonFilteredPackage() {
-        return nonFilteredPackage;
+    public String getNonFilteredPackage() {
+        return getNonFilteredPackageAt(System.currentTimeMillis());
     }
 
-    public synchronized String getFilteredPackage() {
+    public String getFilteredPackage() {
+        return getFilteredPackageAt(System.currentTimeMillis());
+    }
+
+    /**
+     * @return The last app other than us that was in the foreground at {@code time}, or empty.
+     */
+    @NonNull
+    public String getNonFilteredPackageAt(long time) {
+        refresh();
+        return packageAt(time, false);
+    }
+
+    /**
+     * @return The last app that was in the foreground at {@code time}, ignoring system pop ups and
+     * browsers that could have opened us, or empty.
+     */
+    @NonNull
+    public String getFilteredPackageAt(long time) {
+        refresh();
+        final String filteredPackage = packageAt(time, true);
         if (TextUtils.isEmpty(filteredPackage)) {
             ServiceManager.startAppDetectionService(context);
         }
         return filteredPackage;
     }
 
-    public synchronized void clear() {
-        filteredPackage = nonFilteredPackage = "";
+    void setDetector(@Nullable UsageEventsDetector detector) {
+        this.detector = detector;
+    }
+
+    /**
+     * Logs the apps that came to the foreground since the last poll of the detector, so that the
+     * packages are current when asked for, as when a link is opened, without constant polling.
+     *
+     * @return True if any app came to the foreground.
+     */
+    boolean refresh() {
+        final UsageEventsDetector detector = this.detector;
+        if (detector == null) {
+            return false;
+        }
+        try {
+            return detector.poll(System.currentTimeMillis(), this::logPackage);
+        } catch (Exception e) {
+            Timber.e(e);
+            return false;
+        }
+    }
+
+    public void clear() {
+        historyFloor = writeIndex.get();
+    }
+
+    @Nullable
+    private Transition lastTransition() {
+        final long index = writeIndex.get() - 1;
+        if (index < historyFloor) {
+            return null;
+        }
+        return history.get((int) (index & HISTORY_MASK));
     }
 
+    /**
+     * Finds the latest transition at or before {@code time} whose app passes the filter. A slot
+     * overwritten while scanning holds a newer transition than the one it replaced, so at worst the
+     * scan misses a transition that was about to drop out of the buffer.
+     */
+    @NonNull
+    private String packageAt(long time, boolean filtered) {
+        final long end = writeIndex.get();
+        final long start = Math.max(historyFloor, end - HISTORY_SIZE);
+        Transition match = null;
+        for (long index = end - 1; index >= start; index--) {
+            final Transition transition = history.get((int) (index & HISTORY_MASK));
+            if (transition == null
+                    || transition.timestamp > time
+                    || (match != null && transition.timestamp <= match.timestamp)) {
+                continue;
+            }
+            final boolean accepted = filtered
+                    ? filterPackage(transition.packageName)
+                    : nonFilterPackage(transition.packageName);
+            if (accepted) {
+                match = transition;
+            }
+        }
+        return match == null ? "" : match.packageName;
+    }
+
+    @Nullable
+    private String customTabPackage() {
+        if (!customTabPackageLoaded) {
+            // Marked before reading, so that a change while reading loads it again next time.
+            customTabPackageLoaded = true;
+            customTabPackage = Preferences.get(context).customTabPackage();
+        }
+        return customTabPackage;
+    }
 
     private boolean nonFilterPackage(@NonNull String appPackage) {
         // Ignore system pop ups
         if (appPackage.equalsIgnoreCase("android")) return false;
 
         // Ignore our app
-        return !appPackage.equalsIgnoreCase(context.getPackageName());
+        return !appPackage.equalsIgnoreCase(ownPackage);
     }
 
     private boolean filterPackage(@NonNull String packageName) {
@@ -92,11 +221,11 @@ public final class AppDetectionManager {
         if (packageName.contains("systemui")) return false;
 
         // Ignore our app
-        if (packageName.equalsIgnoreCase(context.getPackageName())) return false;
+        if (packageName.equalsIgnoreCase(ownPackage)) return false;
 
         // Chances are that we picked the opening custom tab, so let's ignore our default provider
         // to be safe
-        if (packageName.equalsIgnoreCase(Preferences.get(context).customTabPackage())) return false;
+        if (packageName.equalsIgnoreCase(customTabPackage())) return false;
 
         // Ignore google quick search box
         if (packageName.equalsIgnoreCase("com.google.android.googlequicksearchbox")) return false;
@@ -109,4 +238,14 @@ public final class AppDetectionManager {
 
         return true;
     }
+
+    private static final class Transition {
+        final String packageName;
+        final long timestamp;
+
+        Transition(@NonNull String packageName, long timestamp) {
+            this.packageName = packageName;
+            this.timestamp = timestamp;
+        }
+    }
 }
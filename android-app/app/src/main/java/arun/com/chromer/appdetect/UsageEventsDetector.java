@@ -0,0 +1,130 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.appdetect;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detects apps coming to the foreground from usage events. Every {@link #poll(long, EventSink)}
+ * reads only the events after the last one seen, so polling costs little when nothing changes and
+ * a poll right when a link is opened still sees every app switch since the previous one.
+ * <p>
+ * Background polls back off from {@link #MIN_POLL_INTERVAL_MS} to {@link #MAX_POLL_INTERVAL_MS}
+ * while no app comes to the foreground, see {@link #nextPollDelayMs(boolean)}.
+ */
+final class UsageEventsDetector {
+    static final long MIN_POLL_INTERVAL_MS = 400;
+    static final long MAX_POLL_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    /**
+     * How far back the first poll looks for the app in the foreground.
+     */
+    static final long INITIAL_LOOKBACK_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final EventSource source;
+    // Time stamp of the last event seen, or -1 before the first poll.
+    private long lastEventTime = -1;
+    private long pollDelayMs = MIN_POLL_INTERVAL_MS;
+
+    final Stats stats = new Stats();
+
+    UsageEventsDetector(@NonNull EventSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Reports every app that came to the foreground since the last poll to {@code sink}, oldest
+     * first.
+     *
+     * @param now Current wall clock time, which usage events are stamped with.
+     * @return True if any app came to the foreground.
+     */
+    synchronized boolean poll(long now, @NonNull EventSink sink) {
+        if (lastEventTime > now) {
+            // The clock was set back, start over.
+            lastEventTime = -1;
+        }
+        final long begin = lastEventTime >= 0 ? lastEventTime + 1 : now - INITIAL_LOOKBACK_MS;
+        final long lastBefore = lastEventTime;
+        stats.polls.incrementAndGet();
+        source.read(begin, now, (packageName, timestamp) -> {
+            stats.eventsRead.incrementAndGet();
+            lastEventTime = Math.max(lastEventTime, timestamp);
+            sink.onForeground(packageName, timestamp);
+        });
+        final boolean changed = lastEventTime != lastBefore;
+        if (changed) {
+            stats.changes.incrementAndGet();
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the delay before the next background poll: the minimum right after a change, and
+     * twice the previous delay up to the maximum while nothing changes.
+     */
+    synchronized long nextPollDelayMs(boolean changed) {
+        pollDelayMs = changed ? MIN_POLL_INTERVAL_MS : Math.min(pollDelayMs * 2, MAX_POLL_INTERVAL_MS);
+        return pollDelayMs;
+    }
+
+    /**
+     * Reads usage events, {@link android.app.usage.UsageStatsManager#queryEvents(long, long)} on
+     * devices.
+     */
+    interface EventSource {
+        /**
+         * Reports the apps that came to the foreground between {@code beginTime} inclusive and
+         * {@code endTime} exclusive to {@code sink}, oldest first.
+         */
+        void read(long beginTime, long endTime, @NonNull EventSink sink);
+    }
+
+    interface EventSink {
+        void onForeground(@NonNull String packageName, long timestamp);
+    }
+
+    static final class Stats {
+        /**
+         * Polls made, each a wake up of the detecting thread.
+         */
+        final AtomicLong polls = new AtomicLong();
+        /**
+         * Foreground events read.
+         */
+        final AtomicLong eventsRead = new AtomicLong();
+        /**
+         * Polls that found an app come to the foreground.
+         */
+        final AtomicLong changes = new AtomicLong();
+        /**
+         * Thread CPU time spent polling.
+         */
+        final AtomicLong cpuTimeMs = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return "Stats(polls=" + polls.get() + ", eventsRead=" + eventsRead.get()
+                    + ", changes=" + changes.get() + ", cpuTimeMs=" + cpuTimeMs.get() + ")";
+        }
+    }
+}
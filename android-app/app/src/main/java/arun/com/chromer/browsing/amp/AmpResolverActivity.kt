@@ -29,15 +29,23 @@ import arun.com.chromer.browsing.BrowsingActivity
 import arun.com.chromer.data.website.model.Website
 import arun.com.chromer.di.activity.ActivityComponent
 import arun.com.chromer.tabs.DefaultTabsManager
+import arun.com.chromer.util.parser.RedirectResolver
 import com.afollestad.materialdialogs.MaterialDialog
+import rx.android.schedulers.AndroidSchedulers
 import rx.subscriptions.CompositeSubscription
+import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
 class AmpResolverActivity : BrowsingActivity() {
     private var ampResolverDialog: AmpResolverDialog? = null
+    // Owned here so that dismissing the dialog does not cancel the resolve it started.
+    private val subs = CompositeSubscription()
+    private var launched = false
 
     @Inject
     lateinit var tabsManager: DefaultTabsManager
+    @Inject
+    lateinit var redirectResolver: RedirectResolver
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -58,24 +66,46 @@ class AmpResolverActivity : BrowsingActivity() {
     }
 
     private fun launchUrl() {
-        if (website!!.hasAmp()) {
-            tabsManager.openBrowsingTab(this, Website.Ampify(website!!), fromNewTab = false)
+        if (launched) {
+            return
+        }
+        launched = true
+        val website = website!!
+        if (website.hasAmp()) {
+            tabsManager.openBrowsingTab(this, Website.Ampify(website), fromNewTab = false)
+            ampResolverDialog?.dismiss()
         } else {
-            tabsManager.openUrl(this, Website.Ampify(website!!), fromAmp = true)
+            // Open the page the link lands on so that the browser does not follow its redirects
+            // again. Loading the website resolved them already, unless the user skipped early.
+            subs.add(redirectResolver.resolve(website.url)
+                    .timeout(RESOLVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .onErrorReturn { website.url }
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe { resolvedUrl ->
+                        val target = Website.Ampify(website).apply {
+                            url = resolvedUrl
+                            canonicalUrl = resolvedUrl
+                        }
+                        tabsManager.openUrl(this, target, fromAmp = true)
+                        ampResolverDialog?.dismiss()
+                    })
         }
-        ampResolverDialog?.dismiss()
     }
 
 
     override fun onDestroy() {
         super.onDestroy()
+        subs.clear()
         ampResolverDialog?.dismiss()
     }
 
+    companion object {
+        private const val RESOLVE_TIMEOUT_MS = 1000L
+    }
+
     inner class AmpResolverDialog(
             private var activity: Activity?
     ) : DialogInterface.OnDismissListener {
-        val subs = CompositeSubscription()
         private var dialog: MaterialDialog? = null
 
         fun show(): AmpResolverDialog? {
@@ -85,6 +115,8 @@ class AmpResolverActivity : BrowsingActivity() {
                     .content(R.string.loading)
                     .dismissListener(this)
                     .positiveText(R.string.skip)
+                    // Dismissed once the url is opened, which may take a resolve.
+                    .autoDismiss(false)
                     .onPositive { _, _ -> launchUrl() }
                     .show()
             return this
@@ -106,7 +138,6 @@ class AmpResolverActivity : BrowsingActivity() {
         }
 
         override fun onDismiss(dialogInterface: DialogInterface?) {
-            subs.clear()
             activity?.finish()
             activity = null
             dialog = null
@@ -29,6 +29,7 @@ import javax.inject.Singleton;
 
 import arun.com.chromer.data.webarticle.WebArticleRepository;
 import arun.com.chromer.util.SchedulerProvider;
+import arun.com.chromer.util.parser.ExtractionScheduler.Priority;
 
 @Singleton
 public class ArticlePreloader {
@@ -41,7 +42,7 @@ public class ArticlePreloader {
     }
 
     public void preloadArticle(@NonNull Uri uri, @Nullable final ArticlePreloadListener listener) {
-        webArticleRepository.getWebArticle(uri.toString())
+        webArticleRepository.getWebArticle(uri.toString(), Priority.PREFETCH)
                 .compose(SchedulerProvider.applyIoSchedulers())
                 .doOnError(throwable -> {
                     if (listener != null) {
@@ -0,0 +1,169 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.browsing.customtabs.dynamictoolbar;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.ColorInt;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.graphics.Palette;
+
+import java.util.Collections;
+import java.util.List;
+
+import arun.com.chromer.R;
+import arun.com.chromer.util.ColorUtil;
+import timber.log.Timber;
+
+import static arun.com.chromer.shared.Constants.NO_COLOR;
+
+/**
+ * Extracts the color of an app, its primary theme color or else the prominent color of its icon.
+ * Safe to use from several threads at once.
+ */
+public final class AppColorExtractor {
+    // Icons that are not bitmaps are drawn at this size, enough for a palette.
+    private static final int ICON_SIZE = 48;
+
+    private final Context context;
+    private final PackageManager packageManager;
+    // Theme colors of apps that did not pick their own, ignored.
+    @ColorInt
+    private final int defaultLightColor;
+    @ColorInt
+    private final int defaultDarkColor;
+
+    public AppColorExtractor(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        packageManager = this.context.getPackageManager();
+        defaultLightColor = ContextCompat.getColor(this.context, R.color.md_grey_100);
+        defaultDarkColor = ContextCompat.getColor(this.context, R.color.md_grey_900);
+    }
+
+    /**
+     * @return The color of the app, or {@link arun.com.chromer.shared.Constants#NO_COLOR}.
+     */
+    @WorkerThread
+    @ColorInt
+    public int extract(@NonNull ApplicationInfo applicationInfo) {
+        if (!isValidPackage(applicationInfo.packageName)) {
+            return NO_COLOR;
+        }
+        final int color = extractColorFromResources(applicationInfo);
+        if (color != NO_COLOR) {
+            return color;
+        }
+        return extractColorFromAppIcon(applicationInfo);
+    }
+
+    private int extractColorFromResources(@NonNull ApplicationInfo applicationInfo) {
+        try {
+            final String packageName = applicationInfo.packageName;
+            final Resources resources = packageManager.getResourcesForApplication(applicationInfo);
+            // Created once for both attributes below.
+            Resources.Theme theme = null;
+            // Try to extract appcompat primary color value, then the lollipop colorPrimary attribute.
+            for (String attribute : new String[]{"colorPrimary", "android:colorPrimary"}) {
+                final int attributeId = resources.getIdentifier(attribute, "attr", packageName);
+                if (attributeId > 0) {
+                    if (theme == null) {
+                        theme = resources.newTheme();
+                        theme.applyStyle(applicationInfo.theme, false);
+                    }
+                    final int color = getThemedColor(theme, attributeId);
+                    if (color != NO_COLOR) {
+                        return color;
+                    }
+                }
+            }
+            return NO_COLOR;
+        } catch (Exception e) {
+            Timber.e(e);
+            return NO_COLOR;
+        }
+    }
+
+    private int getThemedColor(@NonNull Resources.Theme theme, int attributeId) {
+        // Attempt to get styled values now
+        final TypedArray array = theme.obtainStyledAttributes(new int[]{attributeId});
+        // Styled color
+        int color = array.getColor(0, NO_COLOR);
+        array.recycle();
+        if (color == defaultLightColor || color == defaultDarkColor) {
+            color = NO_COLOR;
+        }
+        return color;
+    }
+
+    private int extractColorFromAppIcon(@NonNull ApplicationInfo applicationInfo) {
+        try {
+            final Drawable icon = packageManager.getApplicationIcon(applicationInfo);
+            final boolean drawn = !(icon instanceof BitmapDrawable) || ((BitmapDrawable) icon).getBitmap() == null;
+            final Bitmap iconBitmap = drawn ? drawIcon(icon) : ((BitmapDrawable) icon).getBitmap();
+            final Palette palette = Palette.from(iconBitmap)
+                    .clearFilters()
+                    .generate();
+            if (drawn) {
+                iconBitmap.recycle();
+            }
+            final int extractColor = getPreferredColorFromSwatches(palette);
+            Timber.d("Extracted %d for %s", extractColor, applicationInfo.packageName);
+            return extractColor;
+        } catch (Exception e) {
+            Timber.e(e);
+            return NO_COLOR;
+        }
+    }
+
+    @NonNull
+    private static Bitmap drawIcon(@NonNull Drawable icon) {
+        final Bitmap bitmap = Bitmap.createBitmap(ICON_SIZE, ICON_SIZE, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        icon.setBounds(0, 0, ICON_SIZE, ICON_SIZE);
+        icon.draw(canvas);
+        return bitmap;
+    }
+
+    private boolean isValidPackage(String app) {
+        return !app.equalsIgnoreCase(context.getPackageName()) && !app.equalsIgnoreCase("android") && !app.isEmpty();
+    }
+
+    private int getPreferredColorFromSwatches(Palette palette) {
+        final List<Palette.Swatch> swatchList = ColorUtil.getSwatchListFromPalette(palette);
+        final Palette.Swatch prominentSwatch = Collections.max(swatchList,
+                (swatch1, swatch2) -> {
+                    int a = swatch1 == null ? 0 : swatch1.getPopulation();
+                    int b = swatch2 == null ? 0 : swatch2.getPopulation();
+                    return a - b;
+                });
+        if (prominentSwatch != null)
+            return prominentSwatch.getRgb();
+        else return NO_COLOR;
+    }
+}
@@ -19,23 +19,21 @@
 
 package arun.com.chromer.data.apps
 
-import android.app.Application
-import android.content.Intent
-import arun.com.chromer.browsing.customtabs.dynamictoolbar.AppColorExtractorJob
+import arun.com.chromer.data.apps.model.AppPolicy
 import arun.com.chromer.data.apps.qualifiers.System
+import arun.com.chromer.data.apps.store.AppColorCatalog
 import arun.com.chromer.data.apps.store.AppStore
 import arun.com.chromer.data.common.App
 import arun.com.chromer.data.common.qualifiers.Disk
 import arun.com.chromer.shared.Constants
 import rx.Observable
-import timber.log.Timber
 import javax.inject.Inject
 import javax.inject.Singleton
 
 @Singleton
 class DefaultAppRepository
 @Inject internal constructor(
-        private val application: Application,
+        private val appColorCatalog: AppColorCatalog,
         @param:Disk private val diskStore: AppStore,
         @param:System private val systemStore: AppStore
 ) : AppRepository {
@@ -49,18 +47,7 @@ class DefaultAppRepository
     }
 
     override fun getPackageColor(packageName: String): Observable<Int> {
-        return diskStore.getPackageColor(packageName)
-                .doOnNext { integer ->
-                    if (integer == Constants.NO_COLOR) {
-                        Timber.d("Color not found, starting extraction.")
-                        AppColorExtractorJob.enqueueWork(
-                                application,
-                                AppColorExtractorJob::class.java,
-                                AppColorExtractorJob.JOB_ID,
-                                Intent().putExtra(Constants.EXTRA_PACKAGE_NAME, packageName)
-                        )
-                    }
-                }
+        return Observable.fromCallable { getPackageColorSync(packageName) }
     }
 
     override fun setPackageColor(packageName: String, color: Int): Observable<App> {
@@ -79,8 +66,12 @@ class DefaultAppRepository
         return diskStore.setPackageBlacklisted(packageName)
     }
 
+    /**
+     * Color extracted for [packageName], else the one saved with its settings, both from memory.
+     */
     override fun getPackageColorSync(packageName: String): Int {
-        return getPackageColor(packageName).toBlocking().first()
+        val color = appColorCatalog.getColor(packageName)
+        return if (color != Constants.NO_COLOR) color else diskStore.getPackageColorSync(packageName)
     }
 
     override fun isPackageIncognito(packageName: String): Boolean {
@@ -95,16 +86,35 @@ class DefaultAppRepository
         return diskStore.removeIncognito(packageName)
     }
 
+    /**
+     * Emits the installed apps joined with their stored policies, sorted, once for every
+     * [APPS_PAGE_SIZE] apps loaded so that the first ones can be shown while the rest load.
+     */
     override fun allApps(): Observable<List<App>> {
         val appComparator = App.PerAppListComparator()
         return systemStore.getInstalledApps()
-                .map { app ->
-                    app.blackListed = diskStore.isPackageBlacklisted(app.packageName)
-                    app.incognito = diskStore.isPackageIncognito(app.packageName)
-                    app
+                .buffer(APPS_PAGE_SIZE)
+                .scan(emptyList<App>()) { loaded, page -> loaded + page }
+                .skip(1)
+                // Settings are read again for every page, so that changes made while later pages
+                // load are not undone by the next list.
+                .concatMap { apps ->
+                    diskStore.getAppPolicies().map { policies ->
+                        apps.map { app ->
+                            val policy = policies[app.packageName] ?: AppPolicy.DEFAULT
+                            App(app.appName, app.packageName, policy.blacklisted, policy.incognito, app.color)
+                        }.sortedWith(appComparator)
+                    }
                 }
-                .toSortedList { app1, app2 -> appComparator.compare(app1, app2) }
+                .defaultIfEmpty(emptyList())
     }
 
     override fun allProviders() = systemStore.allProviders()
+
+    companion object {
+        /**
+         * Apps loaded between emissions of [allApps], about a screen full.
+         */
+        private const val APPS_PAGE_SIZE = 24
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.apps.model
+
+import android.support.annotation.ColorInt
+import arun.com.chromer.data.common.App
+import arun.com.chromer.shared.Constants
+
+/**
+ * Settings of an app that decide how links opened from it are handled.
+ */
+data class AppPolicy(
+        @JvmField val blacklisted: Boolean,
+        @JvmField val incognito: Boolean,
+        @JvmField @ColorInt val color: Int
+) {
+    constructor(app: App) : this(app.blackListed, app.incognito, app.color)
+
+    companion object {
+        /**
+         * Policy of an app without any settings.
+         */
+        @JvmField
+        val DEFAULT = AppPolicy(false, false, Constants.NO_COLOR)
+    }
+}
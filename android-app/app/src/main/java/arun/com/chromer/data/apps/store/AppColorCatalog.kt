@@ -0,0 +1,290 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.apps.store
+
+import android.app.Application
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.content.pm.PackageInfo
+import android.support.annotation.ColorInt
+import android.support.annotation.WorkerThread
+import arun.com.chromer.browsing.customtabs.dynamictoolbar.AppColorExtractor
+import arun.com.chromer.shared.Constants
+import arun.com.chromer.util.SingleFlight
+import rx.Observable
+import rx.schedulers.Schedulers
+import timber.log.Timber
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Colors of the installed apps, used to color the toolbar after the app a link was opened from.
+ *
+ * Colors are extracted for all launchable apps in bulk, a few at a time off the main thread, and
+ * kept in one small file along with the update time of each app. On later starts only apps that
+ * were installed or updated since are extracted again, as are apps installed or updated while we
+ * run. Lookups are served from memory and never wait for an extraction.
+ */
+@Singleton
+class AppColorCatalog
+@Inject
+constructor(private val application: Application) {
+
+    private val extractor by lazy { AppColorExtractor(application) }
+
+    private val catalogFile = File(application.cacheDir, CATALOG_FILE)
+
+    @Volatile
+    private var entries: Map<String, Entry> = emptyMap()
+
+    private val started = AtomicBoolean()
+
+    // Extractions by package, shared by the bulk pass, misses and installs or updates.
+    private val extractions = SingleFlight<String, Entry>()
+
+    // Extracted by the bulk pass and not yet applied with the rest of their chunk.
+    private val pending = ConcurrentHashMap<String, Entry>()
+
+    val stats = Stats()
+
+    /**
+     * @return The color of [packageName], or [Constants.NO_COLOR] if it is unknown or not extracted
+     * yet, in which case it is extracted in the background.
+     */
+    @ColorInt
+    fun getColor(packageName: String): Int {
+        start()
+        val entry = entries[packageName] ?: pending[packageName]
+        if (entry != null) {
+            stats.hits.incrementAndGet()
+            return entry.color
+        }
+        stats.misses.incrementAndGet()
+        if (packageName.isNotEmpty()) {
+            refresh(packageName)
+        }
+        return Constants.NO_COLOR
+    }
+
+    /**
+     * Loads the catalog, brings it up to date with the installed apps and keeps it so, once.
+     */
+    private fun start() {
+        if (!started.compareAndSet(false, true)) {
+            return
+        }
+        val filter = IntentFilter().apply {
+            addAction(Intent.ACTION_PACKAGE_ADDED)
+            addAction(Intent.ACTION_PACKAGE_REPLACED)
+            addDataScheme("package")
+        }
+        application.registerReceiver(packageReceiver, filter)
+        Observable.fromCallable { load() }
+                .subscribeOn(Schedulers.io())
+                .flatMap { bulkExtract() }
+                .subscribe({}, Timber::e)
+    }
+
+    @WorkerThread
+    private fun load() {
+        val loaded = try {
+            readCatalog(catalogFile)
+        } catch (e: IOException) {
+            Timber.e(e)
+            emptyMap<String, Entry>()
+        }
+        // Extractions that finished while loading win.
+        update { loaded + it }
+    }
+
+    /**
+     * Forgets apps that are gone and extracts the colors of launchable apps that are new or were
+     * updated since their color was extracted. Colors are applied and saved in chunks as they are
+     * extracted, so that they are served early and kept if the process dies during the pass.
+     */
+    private fun bulkExtract(): Observable<List<Pair<String, Entry>>> {
+        val packages = installedPackages()
+        val known = update { current -> current.filterKeys { it in packages } }
+        val stale = packages.values.filter { known[it.packageName]?.lastUpdateTime != it.lastUpdateTime }
+        Timber.d("Extracting colors of %d of %d apps", stale.size, packages.size)
+        return Observable.from(stale)
+                .flatMap({ info ->
+                    extraction(info).map { entry -> info.packageName to entry }
+                }, MAX_CONCURRENT_EXTRACTIONS)
+                .doOnNext { (packageName, entry) -> pending[packageName] = entry }
+                .buffer(CHUNK_TIME_MS, TimeUnit.MILLISECONDS, CHUNK_SIZE)
+                .filter { it.isNotEmpty() }
+                .doOnNext { chunk ->
+                    update { it + chunk }
+                    chunk.forEach { (packageName, entry) -> pending.remove(packageName, entry) }
+                }
+    }
+
+    private fun refresh(packageName: String) {
+        Observable.fromCallable { application.packageManager.getPackageInfo(packageName, 0) }
+                .subscribeOn(Schedulers.computation())
+                .flatMap { info -> extraction(info) }
+                .subscribe({ entry -> update { it + (packageName to entry) } },
+                        { Timber.d("No color for %s: %s", packageName, it.toString()) })
+    }
+
+    /**
+     * Extracts the color of [info], joining an extraction of the same package in progress.
+     */
+    private fun extraction(info: PackageInfo): Observable<Entry> = extractions.execute(info.packageName) {
+        Observable.fromCallable { extract(info) }
+                .subscribeOn(Schedulers.computation())
+    }
+
+    @WorkerThread
+    private fun extract(info: PackageInfo): Entry {
+        stats.extractions.incrementAndGet()
+        return Entry(info.lastUpdateTime, extractor.extract(info.applicationInfo))
+    }
+
+    /**
+     * Launchable apps by package name, as listed in the app list.
+     */
+    @WorkerThread
+    private fun installedPackages(): Map<String, PackageInfo> {
+        val pm = application.packageManager
+        val launcherIntent = Intent(Intent.ACTION_MAIN).addCategory(Intent.CATEGORY_LAUNCHER)
+        val launchable = pm.queryIntentActivities(launcherIntent, 0)
+                .mapTo(HashSet()) { it.activityInfo.packageName }
+        return pm.getInstalledPackages(0)
+                .filter { it.packageName in launchable }
+                .associateBy { it.packageName }
+    }
+
+    /**
+     * Replaces the catalog with the result of [change] and saves it.
+     */
+    @Synchronized
+    private fun update(change: (Map<String, Entry>) -> Map<String, Entry>): Map<String, Entry> {
+        val updated = change(entries)
+        entries = updated
+        try {
+            writeCatalog(catalogFile, updated)
+        } catch (e: IOException) {
+            Timber.e(e)
+        }
+        return updated
+    }
+
+    private val packageReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            // An update is also sent as a replace, handled then.
+            if (intent.action == Intent.ACTION_PACKAGE_ADDED && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                return
+            }
+            val packageName = intent.data?.schemeSpecificPart ?: return
+            refresh(packageName)
+        }
+    }
+
+    /**
+     * Extracted [color] of an app, valid as long as the app's update time is [lastUpdateTime].
+     */
+    internal data class Entry(val lastUpdateTime: Long, @ColorInt val color: Int)
+
+    class Stats {
+        val hits = AtomicLong()
+        val misses = AtomicLong()
+        val extractions = AtomicLong()
+
+        override fun toString() = "Stats(hits=$hits, misses=$misses, extractions=$extractions)"
+    }
+
+    companion object {
+        private const val CATALOG_FILE = "AppColorCatalog"
+        private const val CATALOG_VERSION = 1
+
+        /**
+         * Packages extracted at once, extraction is mostly CPU bound.
+         */
+        private val MAX_CONCURRENT_EXTRACTIONS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2)
+
+        /**
+         * Extracted colors applied and saved at once during the bulk pass, at least every
+         * [CHUNK_TIME_MS].
+         */
+        private const val CHUNK_SIZE = 16
+        private const val CHUNK_TIME_MS = 1000L
+
+        /**
+         * Reads a catalog written by [writeCatalog], empty if there is none or of another version.
+         */
+        @JvmStatic
+        @WorkerThread
+        @Throws(IOException::class)
+        internal fun readCatalog(file: File): Map<String, Entry> {
+            if (!file.exists()) {
+                return emptyMap()
+            }
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != CATALOG_VERSION) {
+                    return emptyMap()
+                }
+                val count = input.readInt()
+                val entries = HashMap<String, Entry>(count * 4 / 3 + 1)
+                repeat(count) {
+                    entries[input.readUTF()] = Entry(input.readLong(), input.readInt())
+                }
+                return entries
+            }
+        }
+
+        /**
+         * Writes [entries] to a temporary file first, so that a reader never sees half a catalog.
+         */
+        @JvmStatic
+        @WorkerThread
+        @Throws(IOException::class)
+        internal fun writeCatalog(file: File, entries: Map<String, Entry>) {
+            val temp = File(file.path + ".tmp")
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { output ->
+                output.writeInt(CATALOG_VERSION)
+                output.writeInt(entries.size)
+                for ((packageName, entry) in entries) {
+                    output.writeUTF(packageName)
+                    output.writeLong(entry.lastUpdateTime)
+                    output.writeInt(entry.color)
+                }
+            }
+            if (!temp.renameTo(file)) {
+                throw IOException("Could not replace $file")
+            }
+        }
+    }
+}
@@ -24,11 +24,15 @@ import android.support.annotation.NonNull;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import arun.com.chromer.data.apps.model.AppPolicy;
 import arun.com.chromer.data.apps.model.Provider;
 import arun.com.chromer.data.common.App;
 import arun.com.chromer.data.common.BookStore;
@@ -36,17 +40,42 @@ import arun.com.chromer.util.Utils;
 import io.paperdb.Book;
 import io.paperdb.Paper;
 import rx.Observable;
+import rx.schedulers.Schedulers;
 import timber.log.Timber;
 
+/**
+ * Disk store of per app settings.
+ * <p>
+ * The settings consulted whenever a link is opened are also kept in an immutable in memory index,
+ * loaded once in the background and replaced on every write, so that answering
+ * {@link #isPackageBlacklisted(String)}, {@link #isPackageIncognito(String)} and the color lookups
+ * does not read the disk. Until the index is loaded, those look ups read just the one package
+ * instead of waiting for all of them.
+ */
 @Singleton
 public class AppDiskStore implements AppStore, BookStore {
     private final Application application;
 
     private static final String APP_BOOK_NAME = "APPS";
 
+    /**
+     * Settings by package name. Never modified, only replaced under {@link #policyLock}.
+     */
+    private volatile Map<String, AppPolicy> policies = Collections.emptyMap();
+    /**
+     * Whether {@link #policies} holds every stored app.
+     */
+    private volatile boolean policiesReady;
+    private final Object policyLock = new Object();
+    private final Observable<Map<String, AppPolicy>> policiesLoaded;
+
     @Inject
     AppDiskStore(Application application) {
         this.application = application;
+        policiesLoaded = Observable.fromCallable(this::loadPolicies)
+                .subscribeOn(Schedulers.io())
+                .cache();
+        policiesLoaded.subscribe(loaded -> Timber.d("Loaded settings of %d apps", loaded.size()), Timber::e);
     }
 
     @NonNull
@@ -79,13 +108,14 @@ public class AppDiskStore implements AppStore, BookStore {
                 .flatMap(app1 -> {
                     getBook().write(app1.packageName, app1);
                     Timber.d("Wrote %s to storage", app1.packageName);
+                    updatePolicy(app1);
                     return Observable.just(app1);
                 });
     }
 
     @Override
     public boolean isPackageBlacklisted(@NonNull String packageName) {
-        return getBook().contains(packageName) && getApp(packageName).toBlocking().first().blackListed;
+        return policyOf(packageName).blacklisted;
     }
 
     @NonNull
@@ -102,17 +132,17 @@ public class AppDiskStore implements AppStore, BookStore {
 
     @Override
     public int getPackageColorSync(@NonNull String packageName) {
-        return getApp(packageName).toBlocking().first().color;
+        return policyOf(packageName).color;
     }
 
     @NonNull
     @Override
     public Observable<Integer> getPackageColor(@NonNull String packageName) {
-        return getApp(packageName)
-                .map(app -> {
-                    Timber.d("Got %d color for %s from storage", app.color, app.packageName);
-                    return app.color;
-                });
+        return Observable.fromCallable(() -> {
+            final int color = policyOf(packageName).color;
+            Timber.d("Got %d color for %s from storage", color, packageName);
+            return color;
+        });
     }
 
     @NonNull
@@ -156,7 +186,7 @@ public class AppDiskStore implements AppStore, BookStore {
 
     @Override
     public boolean isPackageIncognito(@NotNull String packageName) {
-        return getBook().contains(packageName) && getApp(packageName).toBlocking().first().incognito;
+        return policyOf(packageName).incognito;
     }
 
     @NotNull
@@ -176,4 +206,80 @@ public class AppDiskStore implements AppStore, BookStore {
     public Observable<List<Provider>> allProviders() {
         return Observable.empty();
     }
+
+    @NotNull
+    @Override
+    public Observable<Map<String, AppPolicy>> getAppPolicies() {
+        return Observable.fromCallable(this::awaitPolicies);
+    }
+
+    @NonNull
+    private AppPolicy policyOf(@NonNull String packageName) {
+        if (!policiesReady) {
+            return readPolicy(packageName);
+        }
+        final AppPolicy policy = policies.get(packageName);
+        return policy != null ? policy : AppPolicy.DEFAULT;
+    }
+
+    /**
+     * Reads the settings of {@code packageName} alone, for look ups made while the index loads.
+     */
+    @NonNull
+    private AppPolicy readPolicy(@NonNull String packageName) {
+        try {
+            final App app = getBook().read(packageName);
+            if (app != null) {
+                return new AppPolicy(app);
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+        return AppPolicy.DEFAULT;
+    }
+
+    /**
+     * Returns the index, waiting for it to load if this is the first look up since start.
+     */
+    @NonNull
+    private Map<String, AppPolicy> awaitPolicies() {
+        policiesLoaded.toBlocking().first();
+        return policies;
+    }
+
+    private void updatePolicy(@NonNull App app) {
+        awaitPolicies();
+        synchronized (policyLock) {
+            final Map<String, AppPolicy> updated = new HashMap<>(policies);
+            updated.put(app.packageName, new AppPolicy(app));
+            policies = Collections.unmodifiableMap(updated);
+        }
+    }
+
+    @NonNull
+    private Map<String, AppPolicy> loadPolicies() {
+        final Map<String, AppPolicy> loaded = new HashMap<>();
+        try {
+            for (String packageName : getBook().getAllKeys()) {
+                try {
+                    final App app = getBook().read(packageName);
+                    if (app != null) {
+                        loaded.put(packageName, new AppPolicy(app));
+                    }
+                } catch (Exception e) {
+                    try {
+                        getBook().delete(packageName);
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Timber.e(e);
+        }
+        synchronized (policyLock) {
+            policies = Collections.unmodifiableMap(loaded);
+            policiesReady = true;
+        }
+        return policies;
+    }
 }
@@ -20,6 +20,7 @@
 package arun.com.chromer.data.apps.store
 
 import android.support.annotation.ColorInt
+import arun.com.chromer.data.apps.model.AppPolicy
 import arun.com.chromer.data.apps.model.Provider
 import arun.com.chromer.data.common.App
 import rx.Observable
@@ -50,5 +51,11 @@ interface AppStore {
 
     fun getInstalledApps(): Observable<App>
 
+    /**
+     * Policies of every app with stored settings by package name, read in one pass. Apps missing
+     * from the map have [AppPolicy.DEFAULT].
+     */
+    fun getAppPolicies(): Observable<Map<String, AppPolicy>>
+
     fun allProviders(): Observable<List<Provider>>
 }
@@ -23,6 +23,7 @@ import android.app.Application
 import android.content.Intent
 import android.content.pm.ResolveInfo
 import arun.com.chromer.browsing.customtabs.CustomTabs.getCustomTabSupportingPackages
+import arun.com.chromer.data.apps.model.AppPolicy
 import arun.com.chromer.data.apps.model.Provider
 import arun.com.chromer.data.common.App
 import arun.com.chromer.extenstions.toUri
@@ -146,6 +147,8 @@ constructor(
                 }.distinct { it.packageName }
     }
 
+    override fun getAppPolicies(): Observable<Map<String, AppPolicy>> = Observable.just(emptyMap())
+
     override fun allProviders(): Observable<List<Provider>> {
         val preLoadedProviders = Observable.from(allProviders).map { provider ->
             if (Utils.isPackageInstalled(application, provider.packageName)) {
@@ -0,0 +1,238 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.history
+
+import android.app.Application
+import android.content.ComponentCallbacks2
+import android.content.res.Configuration
+import android.os.SystemClock
+import arun.com.chromer.data.history.model.HistoryVisit
+import arun.com.chromer.data.website.model.Website
+import rx.Observable
+import rx.Subscription
+import rx.schedulers.Schedulers
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Write behind buffer for history. Visits are coalesced per url in memory and written to
+ * [HistoryStore] in a single transaction once [MAX_BATCH_SIZE] urls are pending, [FLUSH_DELAY_MS]
+ * after the first pending visit, or when the app is trimmed from memory.
+ *
+ * A failed flush puts its visits back in the buffer so that they are retried with the next one.
+ * Visits discarded while they are being written are neither put back nor left in the store.
+ */
+@Singleton
+class BatchedHistoryWriter
+@Inject
+constructor(
+        application: Application,
+        private val historyStore: HistoryStore
+) : ComponentCallbacks2 {
+
+    private val pending = LinkedHashMap<String, HistoryVisit>()
+    private var inFlight = emptyMap<String, HistoryVisit>()
+    // Urls of the in flight batch discarded while it is written, and whether all were.
+    private val discardedInFlight = HashSet<String>()
+    private var clearedInFlight = false
+    private var scheduledFlush: Subscription? = null
+
+    private val flushLock = Any()
+
+    val stats = Stats()
+
+    init {
+        application.registerComponentCallbacks(this)
+    }
+
+    /**
+     * Buffers a visit to [website], to be written with the next flush.
+     */
+    fun record(website: Website) {
+        val url = website.url ?: return
+        val visit = HistoryVisit(website, 1, System.currentTimeMillis())
+        val batchFull = synchronized(pending) {
+            pending[url] = pending[url]?.merge(visit) ?: visit
+            scheduleFlush()
+            pending.size >= MAX_BATCH_SIZE
+        }
+        if (batchFull) {
+            flushAsync()
+        }
+    }
+
+    /**
+     * @return Visits to [url] that are not yet written to the store, if any.
+     */
+    fun pending(url: String): HistoryVisit? = synchronized(pending) {
+        pending[url] ?: inFlight[url]
+    }
+
+    /**
+     * Drops pending visits to [url], used when the url is being deleted from history.
+     */
+    fun discard(url: String) = synchronized(pending) {
+        pending.remove(url)
+        if (url in inFlight) {
+            discardedInFlight.add(url)
+        }
+    }
+
+    /**
+     * Drops all pending visits, used when history is being cleared.
+     */
+    fun discardAll() = synchronized(pending) {
+        pending.clear()
+        if (inFlight.isNotEmpty()) {
+            clearedInFlight = true
+        }
+    }
+
+    /**
+     * Writes all pending visits on the calling thread. Visits recorded while the flush is running
+     * are written with the next one.
+     *
+     * @return Number of urls written.
+     */
+    fun flush(): Int {
+        synchronized(flushLock) {
+            val batch = synchronized(pending) {
+                // A timer that is already due just finds nothing to write, no need to cancel it.
+                scheduledFlush = null
+                if (pending.isEmpty()) {
+                    return 0
+                }
+                inFlight = LinkedHashMap(pending)
+                pending.clear()
+                inFlight.values
+            }
+            val start = SystemClock.elapsedRealtime()
+            var failed = false
+            val written = try {
+                historyStore.insertVisits(batch).also {
+                    stats.onFlushed(batch.size, SystemClock.elapsedRealtime() - start)
+                    Timber.d("Flushed %d history visits", batch.size)
+                }
+            } catch (e: Exception) {
+                Timber.e(e, "History flush failed, retrying %d visits later", batch.size)
+                stats.failedFlushes.incrementAndGet()
+                failed = true
+                0
+            }
+            val (discarded, cleared) = synchronized(pending) {
+                val discarded = HashSet(discardedInFlight)
+                val cleared = clearedInFlight
+                discardedInFlight.clear()
+                clearedInFlight = false
+                inFlight = emptyMap()
+                if (failed && !cleared) {
+                    requeue(batch.filter { it.website.url !in discarded })
+                }
+                discarded to cleared
+            }
+            if (!failed) {
+                deleteWritten(discarded, cleared)
+            }
+            return written
+        }
+    }
+
+    /**
+     * Deletes visits that were discarded while being written, in case the write landed after the
+     * deletion that discarded them.
+     */
+    private fun deleteWritten(discarded: Set<String>, cleared: Boolean) {
+        try {
+            if (cleared) {
+                historyStore.deleteAll().toBlocking().first()
+            } else {
+                discarded.forEach { url -> historyStore.delete(Website(url)).toBlocking().first() }
+            }
+        } catch (e: Exception) {
+            Timber.e(e)
+        }
+    }
+
+    private fun flushAsync() {
+        Observable.fromCallable { flush() }
+                .subscribeOn(Schedulers.io())
+                .subscribe({}, Timber::e)
+    }
+
+    /**
+     * Must be called while holding the [pending] lock.
+     */
+    private fun requeue(batch: Collection<HistoryVisit>) {
+        val newer = LinkedHashMap(pending)
+        pending.clear()
+        batch.forEach { pending[it.website.url] = it }
+        newer.forEach { (url, visit) -> pending[url] = pending[url]?.merge(visit) ?: visit }
+        scheduleFlush()
+    }
+
+    /**
+     * Must be called while holding the [pending] lock.
+     */
+    private fun scheduleFlush() {
+        if (scheduledFlush == null) {
+            scheduledFlush = Observable.timer(FLUSH_DELAY_MS, TimeUnit.MILLISECONDS, Schedulers.io())
+                    .subscribe({ flush() }, Timber::e)
+        }
+    }
+
+    override fun onTrimMemory(level: Int) = flushAsync()
+
+    override fun onLowMemory() = onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+
+    override fun onConfigurationChanged(newConfig: Configuration?) {
+    }
+
+    /**
+     * Counters describing how well visits are being batched.
+     */
+    class Stats {
+        val flushes = AtomicLong()
+        val failedFlushes = AtomicLong()
+        val visitsFlushed = AtomicLong()
+        val lastBatchSize = AtomicLong()
+        val lastFlushLatencyMs = AtomicLong()
+        val totalFlushLatencyMs = AtomicLong()
+
+        internal fun onFlushed(batchSize: Int, latencyMs: Long) {
+            flushes.incrementAndGet()
+            visitsFlushed.addAndGet(batchSize.toLong())
+            lastBatchSize.set(batchSize.toLong())
+            lastFlushLatencyMs.set(latencyMs)
+            totalFlushLatencyMs.addAndGet(latencyMs)
+        }
+
+        override fun toString(): String = "Stats(flushes=$flushes, failedFlushes=$failedFlushes, " +
+                "visitsFlushed=$visitsFlushed, lastBatchSize=$lastBatchSize, " +
+                "lastFlushLatencyMs=$lastFlushLatencyMs, totalFlushLatencyMs=$totalFlushLatencyMs)"
+    }
+
+    companion object {
+        private const val MAX_BATCH_SIZE = 20
+        private const val FLUSH_DELAY_MS = 2000L
+    }
+}
@@ -22,6 +22,7 @@ package arun.com.chromer.data.history
 import android.arch.lifecycle.LiveData
 import android.arch.paging.LivePagedListBuilder
 import android.arch.paging.PagedList
+import arun.com.chromer.data.history.paging.HistoryPageKey
 import arun.com.chromer.data.history.paging.PagedHistoryDataSource
 import arun.com.chromer.data.website.model.Website
 import arun.com.chromer.settings.Preferences
@@ -38,12 +39,14 @@ class DefaultHistoryRepository
 @Inject
 internal constructor(
         private val historyStore: HistoryStore,
+        private val historyWriter: BatchedHistoryWriter,
         private val preferences: Preferences,
         private val pagedHistoryDataSourceFactory: PagedHistoryDataSource.Factory
 ) : HistoryRepository {
 
     override fun get(website: Website): Observable<Website> {
         return historyStore[website]
+                .map { saved -> saved ?: historyWriter.pending(website.url)?.website }
                 .doOnNext { saved ->
                     if (saved == null) {
                         Timber.d("History miss for: %s", website.url)
@@ -57,14 +60,11 @@ internal constructor(
         return if (preferences.historyDisabled()) {
             Observable.just(website)
         } else {
-            historyStore.insert(website)
-                    .doOnNext { webSite1 ->
-                        if (webSite1 != null) {
-                            Timber.d("Added %s to history", webSite1.url)
-                        } else {
-                            Timber.e("%s Did not add to history", website.url)
-                        }
-                    }
+            Observable.fromCallable {
+                historyWriter.record(website)
+                Timber.d("Queued %s for history", website.url)
+                website
+            }
         }
     }
 
@@ -81,6 +81,14 @@ internal constructor(
         }
     }
 
+    override fun updateMetadata(website: Website): Observable<Website> {
+        return if (preferences.historyDisabled()) {
+            Observable.just(website)
+        } else {
+            historyStore.updateMetadata(website)
+        }
+    }
+
     override fun pagedHistory(): LiveData<PagedList<Website>> {
         val pagedListConfig = PagedList.Config.Builder()
                 .setEnablePlaceholders(false)
@@ -90,16 +98,24 @@ internal constructor(
         return LivePagedListBuilder(pagedHistoryDataSourceFactory, pagedListConfig).build()
     }
 
-    override fun loadHistoryRange(
+    override fun loadHistoryPage(
             limit: Int,
-            offset: Int
-    ) = historyStore.loadHistoryRange(limit, offset)
+            after: HistoryPageKey?
+    ) = historyStore.loadHistoryPage(limit, after)
 
-    override fun delete(website: Website) = historyStore.delete(website)
+    override fun changes() = historyStore.changes()
+
+    override fun delete(website: Website): Observable<Website> = Observable.defer {
+        historyWriter.discard(website.url)
+        historyStore.delete(website)
+    }
 
     override fun exists(website: Website) = historyStore.exists(website)
 
-    override fun deleteAll() = historyStore.deleteAll()
+    override fun deleteAll(): Observable<Int> = Observable.defer {
+        historyWriter.discardAll()
+        historyStore.deleteAll()
+    }
 
     override fun recents() = historyStore.recents()
 
@@ -21,6 +21,8 @@ package arun.com.chromer.data.history
 
 import android.arch.lifecycle.LiveData
 import android.arch.paging.PagedList
+import arun.com.chromer.data.history.paging.HistoryPage
+import arun.com.chromer.data.history.paging.HistoryPageKey
 import arun.com.chromer.data.website.model.Website
 import rx.Observable
 
@@ -34,6 +36,12 @@ interface HistoryRepository {
 
     fun update(website: Website): Observable<Website>
 
+    /**
+     * Refreshes the stored title, favicon, canonical url, theme color and amp url of [website]
+     * without counting a visit. Emits null when [website] is not in history.
+     */
+    fun updateMetadata(website: Website): Observable<Website>
+
     fun delete(website: Website): Observable<Website>
 
     fun exists(website: Website): Observable<Boolean>
@@ -44,9 +52,15 @@ interface HistoryRepository {
 
     fun search(text: String): Observable<List<Website>>
     /**
-     * Load given range specified by [limit] and [offset]
+     * Load at most [limit] items that come after the row identified by [after], or the first page
+     * when [after] is null.
+     */
+    fun loadHistoryPage(limit: Int, after: HistoryPageKey?): HistoryPage
+
+    /**
+     * Emits whenever rows are inserted, updated or deleted.
      */
-    fun loadHistoryRange(limit: Int, offset: Int): List<Website>
+    fun changes(): Observable<Unit>
 
     fun pagedHistory(): LiveData<PagedList<Website>>
 }
@@ -26,10 +26,16 @@ import android.arch.paging.PagedList
 import android.content.ContentValues
 import android.database.sqlite.SQLiteDatabase
 import android.database.sqlite.SQLiteOpenHelper
+import android.database.sqlite.SQLiteStatement
 import arun.com.chromer.data.history.model.HistoryTable.*
+import arun.com.chromer.data.history.model.HistoryVisit
+import arun.com.chromer.data.history.paging.HistoryPage
+import arun.com.chromer.data.history.paging.HistoryPageKey
 import arun.com.chromer.data.website.model.Website
 import rx.Observable
+import rx.subjects.PublishSubject
 import timber.log.Timber
+import java.util.regex.Pattern
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -43,15 +49,51 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
 
     private lateinit var database: SQLiteDatabase
 
+    private var incrementVisitedStatement: SQLiteStatement? = null
+
+    private val changesSubject = PublishSubject.create<Unit>().toSerialized()
+
     private val isOpen @Synchronized get() = ::database.isInitialized && database.isOpen
 
     override fun onCreate(db: SQLiteDatabase) {
         db.execSQL(DATABASE_CREATE)
+        db.execSQL(INDEX_URL_CREATE)
+        db.execSQL(INDEX_CREATED_AT_CREATE)
+        createFullTextIndex(db)
         Timber.d("onCreate called")
     }
 
     override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        Timber.d("Upgrading history from %d to %d", oldVersion, newVersion)
+        if (oldVersion < 2) {
+            db.execSQL(DELETE_DUPLICATE_URLS)
+            db.execSQL(INDEX_URL_CREATE)
+            db.execSQL(INDEX_CREATED_AT_CREATE)
+        }
+        if (oldVersion < 3) {
+            createFullTextIndex(db)
+            db.execSQL(FTS_REBUILD)
+        }
+        if (oldVersion < 4) {
+            // Dropping the old table also drops its indices and triggers, recreate them after copy.
+            db.execSQL(RENAME_TO_OLD)
+            db.execSQL(DATABASE_CREATE)
+            db.execSQL(COPY_FROM_OLD)
+            db.execSQL(DROP_OLD)
+            db.execSQL(INDEX_URL_CREATE)
+            db.execSQL(INDEX_CREATED_AT_CREATE)
+            createFullTextIndex(db)
+            db.execSQL(FTS_REBUILD)
+        }
+        if (oldVersion == 4) {
+            // Older versions already got the column when the table was created again above.
+            db.execSQL(ADD_FETCHED_AT)
+        }
+    }
 
+    private fun createFullTextIndex(db: SQLiteDatabase) {
+        db.execSQL(FTS_CREATE)
+        FTS_TRIGGERS_CREATE.forEach(db::execSQL)
     }
 
     @Synchronized
@@ -64,6 +106,8 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
     @Synchronized
     override fun close() {
         if (isOpen) {
+            incrementVisitedStatement?.close()
+            incrementVisitedStatement = null
             database.close()
         }
     }
@@ -89,28 +133,60 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
     }
 
     override fun insert(website: Website): Observable<Website> {
-        return exists(website)
-                .flatMap { exists ->
-                    if (exists!!) {
-                        return@flatMap update(website)
-                    } else {
-                        val values = ContentValues()
-                        values.put(COLUMN_URL, website.url)
-                        values.put(COLUMN_TITLE, website.title)
-                        values.put(COLUMN_FAVICON, website.faviconUrl)
-                        values.put(COLUMN_CANONICAL, website.canonicalUrl)
-                        values.put(COLUMN_COLOR, website.themeColor)
-                        values.put(COLUMN_AMP, website.ampUrl)
-                        values.put(COLUMN_BOOKMARKED, website.bookmarked)
-                        values.put(COLUMN_CREATED_AT, System.currentTimeMillis())
-                        values.put(COLUMN_VISITED, 1)
-                        return@flatMap if (database.insert(TABLE_NAME, null, values) != -1L) {
-                            Observable.just(website)
-                        } else {
-                            Observable.just(null)
-                        }
-                    }
-                }
+        return Observable.fromCallable {
+            if (insertVisits(listOf(HistoryVisit(website, 1, System.currentTimeMillis()))) > 0) {
+                website
+            } else null
+        }
+    }
+
+    /**
+     * Inserts every visit or bumps the visit count of the existing row, all in a single
+     * transaction. Relies on the unique index on [COLUMN_URL] so that both the conflict check and
+     * the update are index lookups instead of table scans.
+     */
+    override fun insertVisits(visits: Collection<HistoryVisit>): Int {
+        open()
+        database.beginTransaction()
+        val upserted = try {
+            visits.count(::upsert).also { database.setTransactionSuccessful() }
+        } finally {
+            database.endTransaction()
+        }
+        if (upserted > 0) {
+            notifyChanged()
+        }
+        return upserted
+    }
+
+    private fun upsert(visit: HistoryVisit): Boolean {
+        val website = visit.website
+        val values = ContentValues()
+        values.put(COLUMN_URL, website.url)
+        values.put(COLUMN_TITLE, website.title)
+        values.put(COLUMN_FAVICON, website.faviconUrl)
+        values.put(COLUMN_CANONICAL, website.canonicalUrl)
+        values.put(COLUMN_COLOR, website.themeColor)
+        values.put(COLUMN_AMP, website.ampUrl)
+        values.put(COLUMN_BOOKMARKED, website.bookmarked)
+        values.put(COLUMN_CREATED_AT, visit.visitedAt)
+        values.put(COLUMN_VISITED, visit.count)
+        values.put(COLUMN_FETCHED_AT, website.fetchedAt)
+        val inserted = database.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE) != -1L
+        return inserted || incrementVisited(website.url, visit.count, visit.visitedAt) > 0
+    }
+
+    @Synchronized
+    private fun incrementVisited(url: String, count: Int, createdAt: Long): Int {
+        val statement = incrementVisitedStatement
+                ?: database.compileStatement(INCREMENT_VISITED).also { incrementVisitedStatement = it }
+        return with(statement) {
+            clearBindings()
+            bindLong(1, count.toLong())
+            bindLong(2, createdAt)
+            bindString(3, url)
+            executeUpdateDelete()
+        }
     }
 
     override fun update(website: Website): Observable<Website> {
@@ -126,12 +202,14 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
                 values.put(COLUMN_BOOKMARKED, saved.bookmarked)
                 values.put(COLUMN_CREATED_AT, System.currentTimeMillis())
                 values.put(COLUMN_VISITED, ++saved.count)
+                values.put(COLUMN_FETCHED_AT, saved.fetchedAt)
 
                 val whereClause = "$COLUMN_URL=?"
                 val whereArgs = arrayOf(saved.url)
 
                 if (database.update(TABLE_NAME, values, whereClause, whereArgs) > 0) {
                     Timber.d("Updated %s in db", website.url)
+                    notifyChanged()
                     return@flatMap Observable.just(saved)
                 } else {
                     Timber.e("Update failed for %s", website.url)
@@ -143,6 +221,24 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
         }
     }
 
+    override fun updateMetadata(website: Website): Observable<Website> {
+        return Observable.fromCallable {
+            open()
+            val values = ContentValues()
+            values.put(COLUMN_TITLE, website.title)
+            values.put(COLUMN_FAVICON, website.faviconUrl)
+            values.put(COLUMN_CANONICAL, website.canonicalUrl)
+            values.put(COLUMN_COLOR, website.themeColor)
+            values.put(COLUMN_AMP, website.ampUrl)
+            values.put(COLUMN_FETCHED_AT, website.fetchedAt)
+            if (database.update(TABLE_NAME, values, "$COLUMN_URL=?", arrayOf(website.url)) > 0) {
+                Timber.d("Updated metadata of %s in db", website.url)
+                notifyChanged()
+                website
+            } else null
+        }
+    }
+
     override fun delete(website: Website): Observable<Website> {
         return Observable.fromCallable {
             open()
@@ -150,6 +246,7 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
             val whereArgs = arrayOf(website.url)
             if (database.delete(TABLE_NAME, whereClause, whereArgs) > 0) {
                 Timber.d("Deletion successful for %s", website.url)
+                notifyChanged()
             } else {
                 Timber.e("Deletion failed for %s", website.url)
             }
@@ -179,7 +276,7 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
     override fun deleteAll(): Observable<Int> {
         return Observable.fromCallable {
             open()
-            database.delete(TABLE_NAME, "1", null)
+            database.delete(TABLE_NAME, "1", null).also { notifyChanged() }
         }
     }
 
@@ -207,19 +304,10 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
 
     override fun search(text: String): Observable<List<Website>> {
         return Observable.fromCallable {
-            open()
             val websites = ArrayList<Website>()
-            database.query(
-                    true,
-                    TABLE_NAME,
-                    ALL_COLUMN_PROJECTION,
-                    "($COLUMN_URL like '%$text%' OR $COLUMN_TITLE like '%$text%')",
-                    null,
-                    null,
-                    null,
-                    ORDER_BY_TIME_DESC,
-                    "5"
-            )?.use { cursor ->
+            val matchQuery = toMatchQuery(text) ?: return@fromCallable websites
+            open()
+            database.rawQuery(FTS_SEARCH, arrayOf(matchQuery, SEARCH_LIMIT))?.use { cursor ->
                 while (cursor.moveToNext()) {
                     websites.add(Website.fromCursor(cursor))
                 }
@@ -228,22 +316,51 @@ internal constructor(application: Application) : SQLiteOpenHelper(application, T
         }
     }
 
-    override fun loadHistoryRange(limit: Int, offset: Int): List<Website> {
+    override fun loadHistoryPage(limit: Int, after: HistoryPageKey?): HistoryPage {
         open()
-        val cursor = database.rawQuery("SELECT * FROM $TABLE_NAME ORDER BY $ORDER_BY_TIME_DESC LIMIT $limit OFFSET $offset", null)
-        cursor.moveToFirst()
+        val cursor = if (after == null) {
+            database.rawQuery(FIRST_PAGE, arrayOf(limit.toString()))
+        } else {
+            val createdAt = after.createdAt.toString()
+            database.rawQuery(PAGE_AFTER, arrayOf(createdAt, createdAt, after.id.toString(), limit.toString()))
+        }
         val websites = ArrayList<Website>()
-        while (!cursor.isAfterLast) {
-            websites += Website.fromCursor(cursor)
-            cursor.moveToNext()
+        var lastKey: HistoryPageKey? = null
+        cursor.use {
+            val idIndex = it.getColumnIndex(COLUMN_ID)
+            while (it.moveToNext()) {
+                val website = Website.fromCursor(it)
+                websites += website
+                lastKey = HistoryPageKey(website.createdAt, it.getLong(idIndex))
+            }
         }
-        cursor.close()
-        return websites
+        return HistoryPage(websites, if (websites.size < limit) null else lastKey)
     }
 
+    override fun changes(): Observable<Unit> = changesSubject.onBackpressureLatest()
+
+    private fun notifyChanged() = changesSubject.onNext(Unit)
+
     override fun pagedHistory(): LiveData<PagedList<Website>> = MutableLiveData()
 
     companion object {
-        private const val DATABASE_VERSION = 1
+        private const val DATABASE_VERSION = 5
+        private const val SEARCH_LIMIT = "5"
+
+        /**
+         * Characters the default FTS tokenizer treats as separators, i.e. everything in ASCII
+         * except letters and digits.
+         */
+        private val TOKEN_SEPARATOR = Pattern.compile("[\\x00-\\x2F\\x3A-\\x40\\x5B-\\x60\\x7B-\\x7F]+")
+
+        /**
+         * Converts raw user input into a FTS `MATCH` expression where every token is a prefix
+         * query, so partially typed words still match. Tokens are lower cased so that they are never
+         * read as `AND`/`OR`/`NOT` operators. Returns null when there is nothing to match.
+         */
+        internal fun toMatchQuery(text: String): String? {
+            val tokens = TOKEN_SEPARATOR.split(text).filter { it.isNotEmpty() }
+            return if (tokens.isEmpty()) null else tokens.joinToString(separator = " ") { "${it.toLowerCase()}*" }
+        }
     }
 }
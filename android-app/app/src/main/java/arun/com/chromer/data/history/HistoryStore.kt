@@ -19,7 +19,14 @@
 
 package arun.com.chromer.data.history
 
+import arun.com.chromer.data.history.model.HistoryVisit
+
 /**
  * Created by Arunkumar on 03-03-2017.
  */
-interface HistoryStore : HistoryRepository
+interface HistoryStore : HistoryRepository {
+    /**
+     * Records all [visits] in a single transaction and returns the number of rows written.
+     */
+    fun insertVisits(visits: Collection<HistoryVisit>): Int
+}
@@ -33,6 +33,7 @@ public class HistoryTable {
     public static final String COLUMN_BOOKMARKED = "BOOKMARKED";
     public static final String COLUMN_CREATED_AT = "CREATED";
     public static final String COLUMN_VISITED = "VISITED";
+    public static final String COLUMN_FETCHED_AT = "FETCHED";
 
     public static final String TABLE_NAME = "History";
 
@@ -46,8 +47,9 @@ public class HistoryTable {
             COLUMN_COLOR + " TEXT, " +
             COLUMN_AMP + " TEXT, " +
             COLUMN_BOOKMARKED + " INTEGER, " +
-            COLUMN_CREATED_AT + " TEXT, " +
-            COLUMN_VISITED + " INTEGER" +
+            COLUMN_CREATED_AT + " INTEGER, " +
+            COLUMN_VISITED + " INTEGER, " +
+            COLUMN_FETCHED_AT + " INTEGER DEFAULT 0" +
             ");";
 
     public static final String[] ALL_COLUMN_PROJECTION = new String[]{
@@ -59,8 +61,113 @@ public class HistoryTable {
             COLUMN_AMP,
             COLUMN_BOOKMARKED,
             COLUMN_CREATED_AT,
-            COLUMN_VISITED
+            COLUMN_VISITED,
+            COLUMN_FETCHED_AT
     };
 
     public static final String ORDER_BY_TIME_DESC = " CREATED DESC";
+
+    /**
+     * Total ordering used for paging, the row id breaks ties between visits in the same millisecond.
+     */
+    public static final String ORDER_BY_TIME_ID_DESC = COLUMN_CREATED_AT + " DESC, " + COLUMN_ID + " DESC";
+
+    public static final String FIRST_PAGE = "SELECT * FROM " + TABLE_NAME
+            + " ORDER BY " + ORDER_BY_TIME_ID_DESC + " LIMIT ?;";
+
+    /**
+     * Seeks past the given row using the index on {@link #COLUMN_CREATED_AT}, which implicitly
+     * includes the row id. Bind args: created at, created at, id, limit.
+     */
+    public static final String PAGE_AFTER = "SELECT * FROM " + TABLE_NAME + " WHERE "
+            + COLUMN_CREATED_AT + " <= ? AND (" + COLUMN_CREATED_AT + " < ? OR " + COLUMN_ID + " < ?)"
+            + " ORDER BY " + ORDER_BY_TIME_ID_DESC + " LIMIT ?;";
+
+    /**
+     * {@link #COLUMN_CREATED_AT} used to be declared as TEXT which made every timestamp a string.
+     * Used to rebuild the table with an INTEGER column, keeping row ids intact for the FTS index.
+     */
+    public static final String TABLE_NAME_OLD = TABLE_NAME + "_old";
+
+    public static final String RENAME_TO_OLD = "ALTER TABLE " + TABLE_NAME + " RENAME TO " + TABLE_NAME_OLD + ";";
+
+    public static final String COPY_FROM_OLD = "INSERT INTO " + TABLE_NAME + " ("
+            + COLUMN_ID + ", " + COLUMN_URL + ", " + COLUMN_TITLE + ", " + COLUMN_FAVICON + ", "
+            + COLUMN_CANONICAL + ", " + COLUMN_COLOR + ", " + COLUMN_AMP + ", " + COLUMN_BOOKMARKED + ", "
+            + COLUMN_CREATED_AT + ", " + COLUMN_VISITED + ") SELECT "
+            + COLUMN_ID + ", " + COLUMN_URL + ", " + COLUMN_TITLE + ", " + COLUMN_FAVICON + ", "
+            + COLUMN_CANONICAL + ", " + COLUMN_COLOR + ", " + COLUMN_AMP + ", " + COLUMN_BOOKMARKED + ", "
+            + "CAST(" + COLUMN_CREATED_AT + " AS INTEGER), " + COLUMN_VISITED + " FROM " + TABLE_NAME_OLD + ";";
+
+    /**
+     * Time the metadata of a row was fetched, so that history hits are only revalidated once stale.
+     */
+    public static final String ADD_FETCHED_AT = "ALTER TABLE " + TABLE_NAME + " ADD COLUMN "
+            + COLUMN_FETCHED_AT + " INTEGER DEFAULT 0;";
+
+    public static final String DROP_OLD = "DROP TABLE IF EXISTS " + TABLE_NAME_OLD + ";";
+
+    public static final String INDEX_URL = "History_URL_Index";
+    public static final String INDEX_CREATED_AT = "History_CREATED_Index";
+
+    public static final String INDEX_URL_CREATE = "CREATE UNIQUE INDEX IF NOT EXISTS "
+            + INDEX_URL + " ON " + TABLE_NAME + " (" + COLUMN_URL + ");";
+
+    public static final String INDEX_CREATED_AT_CREATE = "CREATE INDEX IF NOT EXISTS "
+            + INDEX_CREATED_AT + " ON " + TABLE_NAME + " (" + COLUMN_CREATED_AT + ");";
+
+    /**
+     * Removes duplicate rows for the same {@link #COLUMN_URL} keeping only the latest one, so that
+     * {@link #INDEX_URL_CREATE} can be applied on databases created before the index existed.
+     */
+    public static final String DELETE_DUPLICATE_URLS = "DELETE FROM " + TABLE_NAME
+            + " WHERE " + COLUMN_ID + " NOT IN (SELECT MAX(" + COLUMN_ID + ") FROM "
+            + TABLE_NAME + " GROUP BY " + COLUMN_URL + ");";
+
+    public static final String FTS_TABLE_NAME = "History_fts";
+
+    /**
+     * External content FTS4 table mirroring {@link #COLUMN_URL} and {@link #COLUMN_TITLE}. The
+     * default tokenizer splits urls on punctuation, so the host is searchable through its labels.
+     */
+    public static final String FTS_CREATE = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+            + FTS_TABLE_NAME + " USING fts4(content=\"" + TABLE_NAME + "\", "
+            + COLUMN_URL + ", " + COLUMN_TITLE + ");";
+
+    public static final String FTS_REBUILD = "INSERT INTO " + FTS_TABLE_NAME
+            + "(" + FTS_TABLE_NAME + ") VALUES('rebuild');";
+
+    private static final String FTS_DELETE_OLD = " BEGIN DELETE FROM " + FTS_TABLE_NAME
+            + " WHERE docid = old." + COLUMN_ID + "; END;";
+
+    private static final String FTS_INSERT_NEW = " BEGIN INSERT INTO " + FTS_TABLE_NAME
+            + "(docid, " + COLUMN_URL + ", " + COLUMN_TITLE + ") VALUES(new." + COLUMN_ID
+            + ", new." + COLUMN_URL + ", new." + COLUMN_TITLE + "); END;";
+
+    public static final String[] FTS_TRIGGERS_CREATE = new String[]{
+            "CREATE TRIGGER IF NOT EXISTS History_fts_bd BEFORE DELETE ON "
+                    + TABLE_NAME + FTS_DELETE_OLD,
+            "CREATE TRIGGER IF NOT EXISTS History_fts_bu BEFORE UPDATE OF "
+                    + COLUMN_URL + ", " + COLUMN_TITLE + " ON " + TABLE_NAME + FTS_DELETE_OLD,
+            "CREATE TRIGGER IF NOT EXISTS History_fts_ai AFTER INSERT ON "
+                    + TABLE_NAME + FTS_INSERT_NEW,
+            "CREATE TRIGGER IF NOT EXISTS History_fts_au AFTER UPDATE OF "
+                    + COLUMN_URL + ", " + COLUMN_TITLE + " ON " + TABLE_NAME + FTS_INSERT_NEW,
+    };
+
+    /**
+     * Full text search over history, most visited and then most recent first. Bind args: match
+     * expression, limit.
+     */
+    public static final String FTS_SEARCH = "SELECT h.* FROM " + TABLE_NAME + " h JOIN "
+            + FTS_TABLE_NAME + " f ON h." + COLUMN_ID + " = f.docid WHERE "
+            + FTS_TABLE_NAME + " MATCH ? ORDER BY h." + COLUMN_VISITED + " DESC, h."
+            + COLUMN_CREATED_AT + " DESC LIMIT ?;";
+
+    /**
+     * Bumps the visit count of an existing row in place. Bind args: visits, created at, url.
+     */
+    public static final String INCREMENT_VISITED = "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_VISITED + " = " + COLUMN_VISITED + " + ?, "
+            + COLUMN_CREATED_AT + " = ? WHERE " + COLUMN_URL + " = ?;";
 }
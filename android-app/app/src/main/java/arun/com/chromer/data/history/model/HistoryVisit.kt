@@ -0,0 +1,38 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.history.model
+
+import arun.com.chromer.data.website.model.Website
+
+/**
+ * One or more visits to [website] that are yet to be written to history, [visitedAt] being the
+ * time of the latest one.
+ */
+data class HistoryVisit(val website: Website, val count: Int, val visitedAt: Long) {
+
+    /**
+     * Merges [other] visits to the same url into this one, preferring the latest metadata.
+     */
+    fun merge(other: HistoryVisit): HistoryVisit = if (other.visitedAt >= visitedAt) {
+        HistoryVisit(other.website, count + other.count, other.visitedAt)
+    } else {
+        HistoryVisit(website, count + other.count, visitedAt)
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.history.paging
+
+import arun.com.chromer.data.website.model.Website
+
+/**
+ * Position of a row in the history ordering, i.e. `CREATED DESC, _ID DESC`. Used to seek to the
+ * next page instead of skipping rows with an offset.
+ */
+data class HistoryPageKey(val createdAt: Long, val id: Long)
+
+/**
+ * A page of history along with the key to load the page after it, or null when this is the last
+ * page.
+ */
+data class HistoryPage(val websites: List<Website>, val nextKey: HistoryPageKey?)
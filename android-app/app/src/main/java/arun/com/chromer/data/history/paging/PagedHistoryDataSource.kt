@@ -20,38 +20,57 @@
 package arun.com.chromer.data.history.paging
 
 import android.arch.paging.DataSource
-import android.arch.paging.PositionalDataSource
+import android.arch.paging.PageKeyedDataSource
 import arun.com.chromer.data.history.HistoryStore
 import arun.com.chromer.data.website.model.Website
 import javax.inject.Inject
 import javax.inject.Provider
 import javax.inject.Singleton
 
-@Singleton
+/**
+ * Pages through history using the last seen [HistoryPageKey] so that every page is an index seek
+ * regardless of how deep the user has scrolled. Invalidates itself on the first change to the
+ * history table, after which [Factory] hands out a fresh instance.
+ */
 class PagedHistoryDataSource
 @Inject
-constructor(private val historyStore: HistoryStore) : PositionalDataSource<Website>() {
+constructor(private val historyStore: HistoryStore) : PageKeyedDataSource<HistoryPageKey, Website>() {
+
+    private val changesSubscription = historyStore.changes()
+            .first()
+            .subscribe { invalidate() }
 
-    override fun loadRange(
-            params: LoadRangeParams,
-            callback: LoadRangeCallback<Website>
-    ) = callback.onResult(historyStore.loadHistoryRange(params.loadSize, params.startPosition))
+    init {
+        addInvalidatedCallback { changesSubscription.unsubscribe() }
+    }
 
     override fun loadInitial(
-            params: LoadInitialParams,
-            callback: LoadInitialCallback<Website>
-    ) = callback.onResult(historyStore.loadHistoryRange(
-            params.requestedLoadSize,
-            params.requestedStartPosition
-    ), 0)
+            params: LoadInitialParams<HistoryPageKey>,
+            callback: LoadInitialCallback<HistoryPageKey, Website>
+    ) {
+        val page = historyStore.loadHistoryPage(params.requestedLoadSize, null)
+        callback.onResult(page.websites, null, page.nextKey)
+    }
+
+    override fun loadAfter(
+            params: LoadParams<HistoryPageKey>,
+            callback: LoadCallback<HistoryPageKey, Website>
+    ) {
+        val page = historyStore.loadHistoryPage(params.requestedLoadSize, params.key)
+        callback.onResult(page.websites, page.nextKey)
+    }
 
+    override fun loadBefore(
+            params: LoadParams<HistoryPageKey>,
+            callback: LoadCallback<HistoryPageKey, Website>
+    ) = callback.onResult(emptyList(), null)
 
     @Singleton
     class Factory
     @Inject
     constructor(
             private val pagedHistoryDataSourceProvider: Provider<PagedHistoryDataSource>
-    ) : DataSource.Factory<Int, Website>() {
+    ) : DataSource.Factory<HistoryPageKey, Website>() {
 
         override fun create(): PagedHistoryDataSource = pagedHistoryDataSourceProvider.get()
     }
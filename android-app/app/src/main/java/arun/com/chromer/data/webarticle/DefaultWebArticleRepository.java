@@ -27,6 +27,8 @@ import javax.inject.Singleton;
 import arun.com.chromer.data.common.qualifiers.Disk;
 import arun.com.chromer.data.common.qualifiers.Network;
 import arun.com.chromer.data.webarticle.model.WebArticle;
+import arun.com.chromer.util.parser.ExtractionScheduler;
+import arun.com.chromer.util.parser.ExtractionScheduler.Priority;
 import rx.Observable;
 import timber.log.Timber;
 
@@ -39,22 +41,30 @@ public class DefaultWebArticleRepository implements WebArticleRepository {
     private final WebArticleStore articleNetworkStore;
     // Cache store
     private final WebArticleStore articleCacheStore;
+    private final ExtractionScheduler extractionScheduler;
 
     @Inject
-    DefaultWebArticleRepository(@Network WebArticleStore articleNetworkStore, @Disk WebArticleStore articleCacheStore) {
+    DefaultWebArticleRepository(@Network WebArticleStore articleNetworkStore, @Disk WebArticleStore articleCacheStore, ExtractionScheduler extractionScheduler) {
         this.articleNetworkStore = articleNetworkStore;
         this.articleCacheStore = articleCacheStore;
+        this.extractionScheduler = extractionScheduler;
     }
 
     @NonNull
     @Override
     public Observable<WebArticle> getWebArticle(@NonNull final String url) {
+        return getWebArticle(url, Priority.FOREGROUND);
+    }
+
+    @NonNull
+    @Override
+    public Observable<WebArticle> getWebArticle(@NonNull final String url, @NonNull Priority priority) {
         return articleCacheStore.getWebArticle(url)
                 .flatMap(webArticle -> {
                     if (webArticle == null) {
                         Timber.d("Cache miss for %s", url);
                         //noinspection Convert2MethodRef
-                        return articleNetworkStore.getWebArticle(url)
+                        return extractionScheduler.schedule(priority, articleNetworkStore.getWebArticle(url))
                                 .flatMap(networkWebArticle -> {
                                     if (networkWebArticle != null) {
                                         return articleCacheStore.saveWebArticle(networkWebArticle);
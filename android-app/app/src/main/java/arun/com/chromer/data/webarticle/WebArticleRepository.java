@@ -22,9 +22,17 @@ package arun.com.chromer.data.webarticle;
 import android.support.annotation.NonNull;
 
 import arun.com.chromer.data.webarticle.model.WebArticle;
+import arun.com.chromer.util.parser.ExtractionScheduler.Priority;
 import rx.Observable;
 
 public interface WebArticleRepository {
     @NonNull
     Observable<WebArticle> getWebArticle(@NonNull String url);
+
+    /**
+     * Same as {@link #getWebArticle(String)}, with a network fetch, if needed, scheduled at
+     * {@code priority}.
+     */
+    @NonNull
+    Observable<WebArticle> getWebArticle(@NonNull String url, @NonNull Priority priority);
 }
\ No newline at end of file
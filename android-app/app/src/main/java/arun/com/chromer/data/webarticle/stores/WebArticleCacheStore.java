@@ -46,10 +46,14 @@ public class WebArticleCacheStore implements WebArticleStore {
     // Cache size, currently set at 30 MB.
     private static final int DISK_CACHE_SIZE = 1024 * 1024 * 30;
 
+    // In memory front tier for recently read articles, currently set at 2 MB.
+    private static final int MEMORY_CACHE_SIZE = 1024 * 1024 * 2;
+
     @Inject
     WebArticleCacheStore(Application application) {
         try {
-            webSiteDiskCache = ParcelDiskCache.open(application, WebArticle.class.getClassLoader(), WebArticle.class.getName(), DISK_CACHE_SIZE);
+            webSiteDiskCache = ParcelDiskCache.open(application, WebArticle.class.getClassLoader(), WebArticle.class.getName(), DISK_CACHE_SIZE, MEMORY_CACHE_SIZE);
+            webSiteDiskCache.shouldSaveInBackground();
         } catch (IOException ignored) {
             Timber.e(ignored);
         }
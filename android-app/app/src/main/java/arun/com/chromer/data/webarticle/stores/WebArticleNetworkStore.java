@@ -31,6 +31,7 @@ import javax.inject.Singleton;
 
 import arun.com.chromer.data.webarticle.WebArticleStore;
 import arun.com.chromer.data.webarticle.model.WebArticle;
+import arun.com.chromer.util.parser.RedirectResolver;
 import arun.com.chromer.util.parser.RxParser;
 import rx.Observable;
 
@@ -39,15 +40,18 @@ import rx.Observable;
  */
 @Singleton
 public class WebArticleNetworkStore implements WebArticleStore {
+    private final RedirectResolver redirectResolver;
 
     @Inject
-    WebArticleNetworkStore() {
+    WebArticleNetworkStore(@NonNull RedirectResolver redirectResolver) {
+        this.redirectResolver = redirectResolver;
     }
 
     @NonNull
     @Override
     public Observable<WebArticle> getWebArticle(@NonNull String url) {
-        return RxParser.INSTANCE.parseArticle(url)
+        return redirectResolver.resolve(url)
+                .flatMap(resolvedUrl -> RxParser.INSTANCE.parseArticle(url, resolvedUrl))
                 .flatMap(urlArticlePair -> {
                     if (urlArticlePair.second != null) {
                         return Observable.just(WebArticle.fromArticle(urlArticlePair.second));
@@ -27,6 +27,9 @@ import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.util.Pair;
 
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -38,6 +41,9 @@ import arun.com.chromer.data.website.model.Website;
 import arun.com.chromer.data.website.stores.WebsiteStore;
 import arun.com.chromer.shared.Constants;
 import arun.com.chromer.util.SchedulerProvider;
+import arun.com.chromer.util.SingleFlight;
+import arun.com.chromer.util.parser.ExtractionScheduler;
+import arun.com.chromer.util.parser.ExtractionScheduler.Priority;
 import rx.Observable;
 import rx.schedulers.Schedulers;
 import timber.log.Timber;
@@ -49,47 +55,63 @@ import static arun.com.chromer.shared.Constants.NO_COLOR;
  */
 @Singleton
 public class DefaultWebsiteRepository implements WebsiteRepository {
+    /**
+     * Time local lookups get before a network fetch is started alongside them.
+     */
+    private static final long SPECULATIVE_FETCH_DELAY_MS = 30;
+    /**
+     * Age after which stored metadata is served once more and then revalidated in background.
+     */
+    private static final long WEBSITE_TTL_MS = TimeUnit.DAYS.toMillis(1);
+
     private final Context context;
     private final WebsiteStore webNetworkStore;
     private final WebsiteStore cacheStore;
     private final HistoryRepository historyRepository;
+    private final ExtractionScheduler extractionScheduler;
+    /**
+     * Network fetches in flight keyed by {@link #fetchKey(String)}, so that screens asking for the
+     * same url at once share one fetch and one cache write.
+     */
+    private final SingleFlight<String, Website> networkFetches = new SingleFlight<>();
+    private final SingleFlight<String, Website> revalidations = new SingleFlight<>();
+    private volatile long speculativeFetchDelayMs = SPECULATIVE_FETCH_DELAY_MS;
 
     @Inject
-    DefaultWebsiteRepository(@NonNull Application context, @Disk WebsiteStore cacheStore, @Network WebsiteStore webNetworkStore, HistoryRepository historyRepository) {
+    DefaultWebsiteRepository(@NonNull Application context,
+                             @Disk WebsiteStore cacheStore,
+                             @Network WebsiteStore webNetworkStore,
+                             HistoryRepository historyRepository,
+                             ExtractionScheduler extractionScheduler) {
         this.context = context.getApplicationContext();
         this.webNetworkStore = webNetworkStore;
         this.cacheStore = cacheStore;
         this.historyRepository = historyRepository;
+        this.extractionScheduler = extractionScheduler;
     }
 
     @NonNull
     @Override
     public Observable<Website> getWebsite(@NonNull final String url) {
-        final Observable<Website> cache = cacheStore.getWebsite(url)
-                .doOnNext(webSite -> {
-                    if (webSite != null) {
-                        historyRepository.insert(webSite).subscribe();
-                    }
-                });
-
-        final Observable<Website> history = historyRepository.get(new Website(url))
-                .doOnNext(webSite -> {
-                    if (webSite != null) {
-                        historyRepository.insert(webSite).subscribe();
-                    }
-                });
-
-        //noinspection Convert2MethodRef
-        final Observable<Website> remote = webNetworkStore.getWebsite(url)
-                .filter(webSite -> webSite != null)
-                .doOnNext(webSite -> {
-                    cacheStore.saveWebsite(webSite).subscribe();
-                    historyRepository.insert(webSite).subscribe();
-                });
+        return getWebsite(url, Priority.FOREGROUND);
+    }
 
+    @NonNull
+    @Override
+    public Observable<Website> getWebsite(@NonNull final String url, @NonNull Priority priority) {
         //noinspection Convert2MethodRef
-        return Observable.concat(cache, history, remote)
-                .first(webSite -> webSite != null)
+        return lookupWebsite(url, priority)
+                .doOnNext(webSite -> historyRepository.insert(webSite).subscribe())
+                .concatMap(webSite -> {
+                    if (!isStale(webSite)) {
+                        return Observable.just(webSite);
+                    }
+                    // Serve the stale copy right away and follow up with fresh metadata if it changed.
+                    // History is updated either way to record when the metadata was fetched.
+                    return Observable.just(webSite).concatWith(revalidate(webSite)
+                            .doOnNext(revalidated -> historyRepository.updateMetadata(revalidated).subscribe())
+                            .filter(revalidated -> !revalidated.hasSameMetadata(webSite)));
+                })
                 .doOnError(Timber::e)
                 .onErrorReturn(throwable -> {
                     Timber.e(throwable);
@@ -102,18 +124,20 @@ public class DefaultWebsiteRepository implements WebsiteRepository {
     @NonNull
     @Override
     public Observable<Website> getIncognitoWebsite(@NonNull final String url) {
-        final Observable<Website> cache = cacheStore.getWebsite(url);
-
-        final Observable<Website> history = historyRepository.get(new Website(url));
-
-        //noinspection Convert2MethodRef
-        final Observable<Website> remote = webNetworkStore.getWebsite(url)
-                .filter(webSite -> webSite != null)
-                .doOnNext(webSite -> cacheStore.saveWebsite(webSite).subscribe());
+        return getIncognitoWebsite(url, Priority.FOREGROUND);
+    }
 
+    @NonNull
+    @Override
+    public Observable<Website> getIncognitoWebsite(@NonNull final String url, @NonNull Priority priority) {
         //noinspection Convert2MethodRef
-        return Observable.concat(cache, history, remote)
-                .first(webSite -> webSite != null)
+        return lookupWebsite(url, priority)
+                .doOnNext(webSite -> {
+                    if (isStale(webSite)) {
+                        // Only refresh the cache, nothing is recorded for incognito lookups.
+                        revalidate(webSite).subscribe();
+                    }
+                })
                 .doOnError(Timber::e)
                 .onErrorReturn(throwable -> {
                     Timber.e(throwable);
@@ -121,6 +145,129 @@ public class DefaultWebsiteRepository implements WebsiteRepository {
                 }).compose(SchedulerProvider.applyIoSchedulers());
     }
 
+    /**
+     * Looks up {@code url} in cache, history and then network, emitting the first hit in that
+     * order.
+     * <p>
+     * Cache and history are queried at the same time; a history hit is only used once the cache
+     * missed. The network fetch starts when both missed or {@link #speculativeFetchDelayMs} after
+     * subscription, whichever is first, so that slow local lookups do not delay it further. Its
+     * result is still only used when both local lookups missed.
+     */
+    @NonNull
+    private Observable<Website> lookupWebsite(@NonNull final String url, @NonNull Priority priority) {
+        final Observable<Website> cache = localLookup(cacheStore.getWebsite(url));
+        final Observable<Website> history = localLookup(historyRepository.get(new Website(url)));
+
+        //noinspection Convert2MethodRef
+        return Observable.concatEager(cache, history)
+                .publish(locals -> {
+                    final Observable<Website> localHit = locals
+                            .filter(webSite -> webSite != null)
+                            .take(1);
+                    final Observable<Boolean> localMiss = locals
+                            .filter(webSite -> webSite != null)
+                            .isEmpty()
+                            .filter(missed -> missed);
+                    // Not amb(), localMiss completing empty on a local hit must not start the fetch.
+                    final Observable<Website> remote = fetchWebsite(url, priority)
+                            .delaySubscription(() -> Observable.<Object>merge(
+                                    localMiss,
+                                    Observable.timer(speculativeFetchDelayMs, TimeUnit.MILLISECONDS)));
+                    return Observable.concatEager(localHit, remote);
+                })
+                .first();
+    }
+
+    private static boolean isStale(@NonNull Website website) {
+        return System.currentTimeMillis() - website.fetchedAt > WEBSITE_TTL_MS;
+    }
+
+    /**
+     * Fetches fresh metadata for a stale {@code website} and caches it. Emits the revalidated
+     * website, or nothing if revalidation failed, in which case the stale copy stays cached.
+     * Revalidations run at {@link Priority#PREFETCH} since a copy is already shown.
+     */
+    @NonNull
+    private Observable<Website> revalidate(@NonNull final Website website) {
+        //noinspection Convert2MethodRef
+        return revalidations.execute(fetchKey(website.url), () -> extractionScheduler.schedule(Priority.PREFETCH, webNetworkStore.revalidateWebsite(website))
+                .filter(revalidated -> revalidated != null)
+                .doOnNext(revalidated -> {
+                    Timber.d("Revalidated %s, changed: %b", revalidated.url, !revalidated.hasSameMetadata(website));
+                    cacheStore.saveWebsite(revalidated).subscribe();
+                }))
+                .onErrorResumeNext(throwable -> {
+                    Timber.e(throwable, "Revalidation failed for %s", website.url);
+                    return Observable.empty();
+                });
+    }
+
+    /**
+     * Emits exactly one item for a local lookup: the stored website or null when it is missing or
+     * could not be read.
+     */
+    @NonNull
+    private static Observable<Website> localLookup(@NonNull Observable<Website> lookup) {
+        return lookup.firstOrDefault(null)
+                .onErrorReturn(throwable -> {
+                    Timber.e(throwable);
+                    return null;
+                })
+                .subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Sets how long {@link #getWebsite(String)} waits for local lookups before also starting a
+     * network fetch.
+     */
+    public void setSpeculativeFetchDelay(long delay, @NonNull TimeUnit unit) {
+        speculativeFetchDelayMs = unit.toMillis(delay);
+    }
+
+    /**
+     * Fetches {@code url} from network and caches the result, joining a fetch of the same url that
+     * is already in flight instead of starting another one. A new fetch waits for its turn at
+     * {@code priority} in {@link ExtractionScheduler}, and is dropped if every request for it is
+     * unsubscribed from before, like a speculative fetch after a local hit. Joining a fetch that
+     * still waits at a less urgent priority moves it up to {@code priority}.
+     */
+    @NonNull
+    private Observable<Website> fetchWebsite(@NonNull final String url, @NonNull Priority priority) {
+        final String key = fetchKey(url);
+        //noinspection Convert2MethodRef
+        final Observable<Website> fetch = networkFetches.execute(key, () -> extractionScheduler.schedule(priority, webNetworkStore.getWebsite(url), key)
+                .filter(webSite -> webSite != null)
+                .doOnNext(webSite -> cacheStore.saveWebsite(webSite).subscribe()));
+        return fetch.doOnSubscribe(() -> extractionScheduler.promote(key, priority));
+    }
+
+    /**
+     * Key for coalescing fetches of {@code url}. Scheme and host are case insensitive, the rest of
+     * the url is kept as is since it may select different content.
+     */
+    @NonNull
+    static String fetchKey(@NonNull String url) {
+        final String trimmed = url.trim();
+        final int schemeEnd = trimmed.indexOf("://");
+        if (schemeEnd == -1) {
+            return trimmed;
+        }
+        int hostEnd = schemeEnd + 3;
+        while (hostEnd < trimmed.length() && "/?#".indexOf(trimmed.charAt(hostEnd)) == -1) {
+            hostEnd++;
+        }
+        return trimmed.substring(0, hostEnd).toLowerCase(Locale.US) + trimmed.substring(hostEnd);
+    }
+
+    /**
+     * Counts of network fetches started and of requests that joined a fetch in flight instead.
+     */
+    @NonNull
+    public SingleFlight.Stats getFetchStats() {
+        return networkFetches.getStats();
+    }
+
     @Override
     public int getWebsiteColorSync(@NonNull String url) {
         return cacheStore.getWebsiteColor(url)
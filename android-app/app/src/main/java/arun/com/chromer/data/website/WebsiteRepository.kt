@@ -25,6 +25,7 @@ import android.util.Pair
 
 import arun.com.chromer.data.website.model.WebColor
 import arun.com.chromer.data.website.model.Website
+import arun.com.chromer.util.parser.ExtractionScheduler.Priority
 import rx.Observable
 
 /**
@@ -35,8 +36,15 @@ import rx.Observable
 interface WebsiteRepository {
     fun getWebsite(url: String): Observable<Website>
 
+    /**
+     * Same as [getWebsite], with a network fetch, if needed, scheduled at [priority].
+     */
+    fun getWebsite(url: String, priority: Priority): Observable<Website>
+
     fun getIncognitoWebsite(url: String): Observable<Website>
 
+    fun getIncognitoWebsite(url: String, priority: Priority): Observable<Website>
+
     fun getWebsiteColorSync(url: String): Int
 
     fun saveWebColor(url: String): Observable<WebColor>
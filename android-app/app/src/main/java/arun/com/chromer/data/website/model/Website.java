@@ -26,13 +26,14 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v7.util.DiffUtil;
 import android.text.TextUtils;
 
-import com.chimbori.crux.articles.Article;
-
 import arun.com.chromer.data.history.model.HistoryTable;
 import arun.com.chromer.data.webarticle.model.WebArticle;
+import arun.com.chromer.util.parser.PageMetadata;
+import arun.com.chromer.util.parser.RedirectResolver;
 
 import static arun.com.chromer.shared.Constants.NO_COLOR;
 
@@ -49,6 +50,19 @@ public class Website implements Parcelable {
     public boolean bookmarked;
     public long createdAt;
     public int count;
+    /**
+     * Validators of the response the metadata was parsed from, sent when revalidating it. Not part
+     * of {@link #equals(Object)}.
+     */
+    @Nullable
+    public String etag;
+    @Nullable
+    public String lastModified;
+    /**
+     * Time the metadata was parsed or last revalidated, 0 if unknown. Not part of
+     * {@link #equals(Object)}.
+     */
+    public long fetchedAt;
 
     public Website() {
 
@@ -83,6 +97,9 @@ public class Website implements Parcelable {
         bookmarked = in.readByte() != 0;
         createdAt = in.readLong();
         count = in.readInt();
+        etag = in.readString();
+        lastModified = in.readString();
+        fetchedAt = in.readLong();
     }
 
     public static final Creator<Website> CREATOR = new Creator<Website>() {
@@ -115,14 +132,14 @@ public class Website implements Parcelable {
 
 
     @NonNull
-    public static Website fromArticle(@NonNull Article article) {
+    public static Website fromMetadata(@NonNull String url, @NonNull PageMetadata metadata) {
         final Website website = new Website();
-        website.title = article.title;
-        website.url = article.url;
-        website.canonicalUrl = !TextUtils.isEmpty(article.canonicalUrl) ? article.canonicalUrl : article.url;
-        website.faviconUrl = article.faviconUrl;
-        website.themeColor = article.themeColor;
-        website.ampUrl = !TextUtils.isEmpty(article.ampUrl) ? article.ampUrl : "";
+        website.title = metadata.title;
+        website.url = url;
+        website.canonicalUrl = !TextUtils.isEmpty(metadata.canonicalUrl) ? metadata.canonicalUrl : url;
+        website.faviconUrl = metadata.faviconUrl;
+        website.themeColor = metadata.themeColor;
+        website.ampUrl = !TextUtils.isEmpty(metadata.ampUrl) ? metadata.ampUrl : "";
         return website;
     }
 
@@ -149,6 +166,7 @@ public class Website implements Parcelable {
         website.bookmarked = cursor.getInt(cursor.getColumnIndex(HistoryTable.COLUMN_BOOKMARKED)) == 1;
         website.createdAt = cursor.getLong(cursor.getColumnIndex(HistoryTable.COLUMN_CREATED_AT));
         website.count = cursor.getInt(cursor.getColumnIndex(HistoryTable.COLUMN_VISITED));
+        website.fetchedAt = cursor.getLong(cursor.getColumnIndex(HistoryTable.COLUMN_FETCHED_AT));
         return website;
     }
 
@@ -230,6 +248,9 @@ public class Website implements Parcelable {
         dest.writeByte((byte) (bookmarked ? 1 : 0));
         dest.writeLong(createdAt);
         dest.writeInt(count);
+        dest.writeString(etag);
+        dest.writeString(lastModified);
+        dest.writeLong(fetchedAt);
     }
 
     @Override
@@ -247,12 +268,41 @@ public class Website implements Parcelable {
                 '}';
     }
 
+    /**
+     * Returns true if {@code other} has the same parsed metadata: title, favicon, canonical url,
+     * theme color and amp url.
+     */
+    public boolean hasSameMetadata(@NonNull Website other) {
+        return TextUtils.equals(title, other.title)
+                && TextUtils.equals(faviconUrl, other.faviconUrl)
+                && TextUtils.equals(canonicalUrl, other.canonicalUrl)
+                && TextUtils.equals(themeColor, other.themeColor)
+                && TextUtils.equals(ampUrl, other.ampUrl);
+    }
+
     public boolean matches(String url) {
         return url.equalsIgnoreCase(this.url)
                 || url.equalsIgnoreCase(this.ampUrl)
                 || url.equalsIgnoreCase(preferredUrl());
     }
 
+    /**
+     * Same as {@link #matches(String)}, but a short link also matches the page it is known to
+     * redirect to, in either direction. Only already resolved links are considered, so this never
+     * touches the network.
+     */
+    public boolean matches(@NonNull String url, @NonNull RedirectResolver redirectResolver) {
+        if (matches(url)) {
+            return true;
+        }
+        final String target = redirectResolver.peekTarget(url);
+        if (target != null && matches(target)) {
+            return true;
+        }
+        final String ownTarget = this.url != null ? redirectResolver.peekTarget(this.url) : null;
+        return ownTarget != null && (ownTarget.equalsIgnoreCase(url) || ownTarget.equalsIgnoreCase(target));
+    }
+
     public static DiffUtil.ItemCallback<Website> DIFFER = new DiffUtil.ItemCallback<Website>() {
         @Override
         public boolean areItemsTheSame(@NonNull Website oldItem, @NonNull Website newItem) {
@@ -57,6 +57,8 @@ public class WebsiteDiskStore implements WebsiteStore, BookStore {
     private ParcelDiskCache<Website> webSiteDiskCache;
     // Cache size, currently set at 30 MB.
     private static final int DISK_CACHE_SIZE = 1024 * 1024 * 30;
+    // In memory front tier for recently opened websites, currently set at 1 MB.
+    private static final int MEMORY_CACHE_SIZE = 1024 * 1024;
 
     private static final String THEME_COLOR_BOOK = "THEME_COLOR_BOOK";
 
@@ -68,7 +70,8 @@ public class WebsiteDiskStore implements WebsiteStore, BookStore {
     @Inject
     WebsiteDiskStore(Application context) {
         try {
-            webSiteDiskCache = ParcelDiskCache.open(context, Website.class.getClassLoader(), "WebSiteCache", DISK_CACHE_SIZE);
+            webSiteDiskCache = ParcelDiskCache.open(context, Website.class.getClassLoader(), "WebSiteCache", DISK_CACHE_SIZE, MEMORY_CACHE_SIZE);
+            webSiteDiskCache.shouldSaveInBackground();
         } catch (IOException e) {
             Timber.e(e);
         }
@@ -93,6 +96,12 @@ public class WebsiteDiskStore implements WebsiteStore, BookStore {
         });
     }
 
+    @NonNull
+    @Override
+    public Observable<Website> revalidateWebsite(@NonNull Website website) {
+        return Observable.empty();
+    }
+
     @NonNull
     @Override
     public Observable<Void> clearCache() {
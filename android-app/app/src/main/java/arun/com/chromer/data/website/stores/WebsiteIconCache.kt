@@ -0,0 +1,250 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.website.stores
+
+import android.annotation.SuppressLint
+import android.app.Application
+import android.graphics.Bitmap
+import android.net.Uri
+import android.os.Parcelable
+import android.support.annotation.ColorInt
+import android.support.annotation.WorkerThread
+import android.support.v7.graphics.Palette
+import android.util.LruCache
+import arun.com.chromer.data.website.model.Website
+import arun.com.chromer.shared.Constants
+import arun.com.chromer.util.ColorUtil
+import arun.com.chromer.util.SingleFlight
+import arun.com.chromer.util.Utils
+import arun.com.chromer.util.glide.GlideApp
+import com.bumptech.glide.Glide
+import com.bumptech.glide.load.resource.bitmap.TransformationUtils
+import `in`.arunkumarsampath.diskcache.ParcelDiskCache
+import kotlinx.android.parcel.Parcelize
+import rx.Observable
+import timber.log.Timber
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Favicons decoded once per host along with the color extracted from them, shared by the plain,
+ * round and placeholder icon variants of [WebsiteNetworkStore].
+ *
+ * Icons of recently used hosts are kept in memory. Extracted colors are also kept in a small disk
+ * cache, so that after a restart only the favicon is decoded again, from Glide's own disk cache,
+ * and the palette is not generated again.
+ */
+@Singleton
+class WebsiteIconCache
+internal constructor(
+        private val colorCache: ParcelDiskCache<IconColor>?,
+        private val decode: (faviconUrl: String) -> Bitmap,
+        private val drawPlaceholder: (website: Website) -> Bitmap
+) {
+
+    @Inject
+    constructor(application: Application) : this(
+            openColorCache(application),
+            { faviconUrl -> GlideApp.with(application).asBitmap().load(faviconUrl).submit().get() },
+            { website -> GlideApp.with(application).asBitmap().load(website).submit().get() }
+    )
+
+    private val icons = object : LruCache<String, Icon>(MEMORY_CACHE_SIZE) {
+        // Counts the round variant, made on demand, up front, and the placeholder drawn instead of
+        // favicons that are not usable.
+        override fun sizeOf(key: String, icon: Icon) = 2 * (icon.bitmap?.byteCount ?: 0) + 1 +
+                if (Utils.isValidFavicon(icon.bitmap)) 0 else PLACEHOLDER_SIZE
+    }
+
+    private val loads = SingleFlight<String, Icon>()
+
+    val stats = Stats()
+
+    /**
+     * Returns the favicon of [website] with its color, decoding it unless it is known for the host
+     * of [website]. Concurrent calls for the same host share one decode.
+     */
+    @WorkerThread
+    fun get(website: Website): Icon {
+        val faviconUrl = website.faviconUrl
+        if (faviconUrl.isNullOrEmpty()) {
+            return Icon.EMPTY
+        }
+        val host = Uri.parse(website.url).host ?: faviconUrl
+        val cached = icons.get(host)
+        if (cached != null && cached.faviconUrl == faviconUrl) {
+            stats.memoryHits.incrementAndGet()
+            return cached
+        }
+        return loads.execute(host) { Observable.fromCallable { load(host, faviconUrl) } }
+                .toBlocking()
+                .first()
+    }
+
+    /**
+     * Returns the favicon of [website] with its color if it is usable, else a placeholder with the
+     * color extracted from it. The placeholder is drawn for the first page of the host of [website]
+     * that needs one and kept with the icon of the host, so that its palette is generated once.
+     */
+    @WorkerThread
+    fun getOrPlaceholder(website: Website): Icon {
+        val icon = get(website)
+        if (Utils.isValidFavicon(icon.bitmap)) {
+            return icon
+        }
+        // Sites without a favicon get an entry of their own to keep the placeholder in.
+        val entry = if (icon === Icon.EMPTY) {
+            val host = Uri.parse(website.url).host ?: website.url
+            icons.get(host)?.takeIf { it.faviconUrl == null }
+                    ?: Icon(null, null, Constants.NO_COLOR).also { icons.put(host, it) }
+        } else icon
+        // One placeholder is kept per host whatever the page title, so that the host keeps its
+        // color, which is random unless the site has a theme color.
+        return entry.placeholder(website.themeColor()) {
+            val placeholder = try {
+                drawPlaceholder(website)
+            } catch (e: Exception) {
+                Timber.e(e)
+                // Not remembered, the next request retries.
+                return@placeholder null
+            }
+            stats.placeholders.incrementAndGet()
+            Icon(entry.faviconUrl, placeholder, ColorUtil.getBestColorFromPalette(Palette.from(placeholder).generate()))
+        }
+    }
+
+    @WorkerThread
+    private fun load(host: String, faviconUrl: String): Icon {
+        // Loaded by a flight that ended between the lookup in get() and this one.
+        icons.get(host)?.takeIf { it.faviconUrl == faviconUrl }?.let { return it }
+        val bitmap = try {
+            decode(faviconUrl)
+        } catch (e: Exception) {
+            Timber.e(e)
+            // Not remembered, the next request retries.
+            return Icon(faviconUrl, null, Constants.NO_COLOR)
+        }
+        stats.decodes.incrementAndGet()
+        val known = try {
+            colorCache?.get(host)
+        } catch (e: Exception) {
+            Timber.e(e)
+            null
+        }
+        val color = if (known != null && known.faviconUrl == faviconUrl) {
+            stats.diskHits.incrementAndGet()
+            known.color
+        } else {
+            val extracted = ColorUtil.getBestColorFromPalette(Palette.from(bitmap).generate())
+            try {
+                colorCache?.set(host, IconColor(faviconUrl, extracted))
+            } catch (e: Exception) {
+                Timber.e(e)
+            }
+            extracted
+        }
+        return Icon(faviconUrl, bitmap, color).also { icons.put(host, it) }
+    }
+
+    /**
+     * A favicon with the color extracted from it.
+     */
+    class Icon internal constructor(
+            val faviconUrl: String?,
+            val bitmap: Bitmap?,
+            @ColorInt val color: Int
+    ) {
+        private var roundBitmap: Bitmap? = null
+
+        /**
+         * [bitmap] cropped to a circle, made on first use.
+         */
+        @WorkerThread
+        @Synchronized
+        fun roundBitmap(glide: Glide): Bitmap? {
+            val source = bitmap ?: return null
+            return roundBitmap ?: TransformationUtils.circleCrop(glide.bitmapPool, source, source.width, source.height)
+                    .also { roundBitmap = it }
+        }
+
+        private var placeholder: Icon? = null
+        @ColorInt
+        private var placeholderThemeColor = Constants.NO_COLOR
+
+        /**
+         * The placeholder drawn by [draw] for a site of [themeColor], drawn again only when the theme
+         * color changes or [draw] failed.
+         */
+        @WorkerThread
+        @Synchronized
+        internal fun placeholder(@ColorInt themeColor: Int, draw: () -> Icon?): Icon {
+            placeholder?.takeIf { placeholderThemeColor == themeColor }?.let { return it }
+            val drawn = draw() ?: return Icon(faviconUrl, null, Constants.NO_COLOR)
+            placeholder = drawn
+            placeholderThemeColor = themeColor
+            return drawn
+        }
+
+        companion object {
+            internal val EMPTY = Icon(null, null, Constants.NO_COLOR)
+        }
+    }
+
+    @SuppressLint("ParcelCreator")
+    @Parcelize
+    data class IconColor(val faviconUrl: String, val color: Int) : Parcelable
+
+    class Stats {
+        /**
+         * Icons served from memory.
+         */
+        val memoryHits = AtomicLong()
+        /**
+         * Favicons decoded.
+         */
+        val decodes = AtomicLong()
+        /**
+         * Decodes whose color was known from disk, so no palette was generated.
+         */
+        val diskHits = AtomicLong()
+        /**
+         * Placeholders drawn for favicons that are missing or not usable.
+         */
+        val placeholders = AtomicLong()
+
+        override fun toString() = "Stats(memoryHits=${memoryHits.get()}, decodes=${decodes.get()}, diskHits=${diskHits.get()}, placeholders=${placeholders.get()})"
+    }
+
+    companion object {
+        private const val MEMORY_CACHE_SIZE = 4 * 1024 * 1024
+        private const val DISK_CACHE_SIZE = 64L * 1024
+        private val PLACEHOLDER_SIZE = Utils.dpToPx(56.0).let { it * it * 4 }
+
+        private fun openColorCache(application: Application): ParcelDiskCache<IconColor>? = try {
+            ParcelDiskCache.open<IconColor>(application, IconColor::class.java.classLoader, "WebsiteIconColorCache", DISK_CACHE_SIZE)
+                    .apply { shouldSaveInBackground() }
+        } catch (e: IOException) {
+            Timber.e(e)
+            null
+        }
+    }
+}
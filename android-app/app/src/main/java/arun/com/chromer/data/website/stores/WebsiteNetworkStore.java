@@ -26,20 +26,20 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
-import android.support.v7.graphics.Palette;
-import android.text.TextUtils;
 import android.util.Pair;
 
+import com.bumptech.glide.Glide;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import arun.com.chromer.data.website.model.WebColor;
 import arun.com.chromer.data.website.model.Website;
-import arun.com.chromer.shared.Constants;
-import arun.com.chromer.util.ColorUtil;
+import arun.com.chromer.data.website.stores.WebsiteIconCache.Icon;
 import arun.com.chromer.util.SchedulerProvider;
 import arun.com.chromer.util.Utils;
-import arun.com.chromer.util.glide.GlideApp;
+import arun.com.chromer.util.parser.ParsedPage;
+import arun.com.chromer.util.parser.RedirectResolver;
 import arun.com.chromer.util.parser.RxParser;
 import rx.Observable;
 import timber.log.Timber;
@@ -50,28 +50,63 @@ import timber.log.Timber;
 @Singleton
 public class WebsiteNetworkStore implements WebsiteStore {
     private final Context context;
+    private final RedirectResolver redirectResolver;
+    private final WebsiteIconCache iconCache;
 
     @Inject
-    WebsiteNetworkStore(@NonNull Application application) {
+    WebsiteNetworkStore(@NonNull Application application,
+                        @NonNull RedirectResolver redirectResolver,
+                        @NonNull WebsiteIconCache iconCache) {
         this.context = application.getApplicationContext();
+        this.redirectResolver = redirectResolver;
+        this.iconCache = iconCache;
     }
 
     @NonNull
     @Override
     public Observable<Website> getWebsite(@NonNull String url) {
-        return RxParser.INSTANCE.parseUrl(url)
-                .flatMap(urlArticlePair -> {
-                    if (urlArticlePair.second != null) {
-                        final Website extractedWebsite = Website.fromArticle(urlArticlePair.second);
-                        // We preserve the original url, otherwise breaks cache.
-                        extractedWebsite.url = urlArticlePair.first;
-                        return Observable.just(extractedWebsite);
+        return redirectResolver.resolve(url)
+                .flatMap(resolvedUrl -> RxParser.INSTANCE.parseUrl(url, resolvedUrl))
+                .map(WebsiteNetworkStore::toWebsite)
+                .compose(SchedulerProvider.applyIoSchedulers());
+    }
+
+    @NonNull
+    @Override
+    public Observable<Website> revalidateWebsite(@NonNull Website website) {
+        return redirectResolver.resolve(website.url)
+                .flatMap(resolvedUrl -> RxParser.INSTANCE.revalidateUrl(website.url, resolvedUrl, website.etag, website.lastModified))
+                .map(parsedPage -> {
+                    if (parsedPage.getNotModified()) {
+                        final Website unchanged = new Website(website.title, website.url, website.faviconUrl,
+                                website.canonicalUrl, website.themeColor, website.ampUrl,
+                                website.bookmarked, website.createdAt, website.count);
+                        unchanged.etag = parsedPage.getEtag();
+                        unchanged.lastModified = parsedPage.getLastModified();
+                        unchanged.fetchedAt = System.currentTimeMillis();
+                        return unchanged;
                     } else {
-                        return Observable.just(new Website(urlArticlePair.first));
+                        return toWebsite(parsedPage);
                     }
                 }).compose(SchedulerProvider.applyIoSchedulers());
     }
 
+    @NonNull
+    private static Website toWebsite(@NonNull ParsedPage parsedPage) {
+        final Website website;
+        if (parsedPage.getMetadata() != null) {
+            // We preserve the original url, otherwise breaks cache.
+            website = Website.fromMetadata(parsedPage.getUrl(), parsedPage.getMetadata());
+            website.fetchedAt = System.currentTimeMillis();
+        } else {
+            // Extraction failed, left stale so that it is fetched again on the next open.
+            website = new Website(parsedPage.getUrl());
+        }
+        website.etag = parsedPage.getEtag();
+        website.lastModified = parsedPage.getLastModified();
+        return website;
+    }
+
     @NonNull
     @Override
     public Observable<Void> clearCache() {
@@ -98,55 +133,31 @@ public class WebsiteNetworkStore implements WebsiteStore {
     @NonNull
     @Override
     public Pair<Bitmap, Integer> getWebsiteIconAndColor(@NonNull Website website) {
-        if (TextUtils.isEmpty(website.faviconUrl)) {
-            return new Pair<>(null, Constants.NO_COLOR);
-        }
-        int color = Constants.NO_COLOR;
-        Bitmap icon = null;
-        try {
-            icon = GlideApp.with(context).asBitmap().load(website.faviconUrl).submit().get();
-            final Palette palette = Palette.from(icon).generate();
-            color = ColorUtil.getBestColorFromPalette(palette);
-        } catch (Exception e) {
-            Timber.e(e);
-        }
-        return new Pair<>(icon, color);
+        final Icon icon = iconCache.get(website);
+        return new Pair<>(icon.getBitmap(), icon.getColor());
     }
 
     @NonNull
     @Override
     public Pair<Drawable, Integer> getWebsiteRoundIconAndColor(@NonNull Website website) {
-        if (TextUtils.isEmpty(website.faviconUrl)) {
-            return new Pair<>(null, Constants.NO_COLOR);
-        }
-        int color = Constants.NO_COLOR;
-        Bitmap icon = null;
+        final Icon icon = iconCache.get(website);
+        Bitmap roundIcon = null;
         try {
-            icon = GlideApp.with(context).asBitmap().circleCrop().load(website.faviconUrl).submit().get();
-            final Palette palette = Palette.from(icon).clearFilters().generate();
-            color = ColorUtil.getBestColorFromPalette(palette);
+            roundIcon = icon.roundBitmap(Glide.get(context));
         } catch (Exception e) {
             Timber.e(e);
         }
-        if (icon != null && Utils.isValidFavicon(icon)) {
-            return new Pair<>(new BitmapDrawable(context.getResources(), icon), color);
+        if (roundIcon != null && Utils.isValidFavicon(roundIcon)) {
+            return new Pair<>(new BitmapDrawable(context.getResources(), roundIcon), icon.getColor());
         } else {
-            return new Pair<>(null, color);
+            return new Pair<>(null, icon.getColor());
         }
     }
 
     @NonNull
     @Override
     public Pair<Bitmap, Integer> getWebsiteIconWithPlaceholderAndColor(@NonNull Website website) {
-        int color = Constants.NO_COLOR;
-        Bitmap icon = null;
-        try {
-            icon = GlideApp.with(context).asBitmap().load(website).submit().get();
-            final Palette palette = Palette.from(icon).generate();
-            color = ColorUtil.getBestColorFromPalette(palette);
-        } catch (Exception e) {
-            Timber.e(e);
-        }
-        return new Pair<>(icon, color);
+        final Icon icon = iconCache.getOrPlaceholder(website);
+        return new Pair<>(icon.getBitmap(), icon.getColor());
     }
 }
@@ -36,6 +36,13 @@ public interface WebsiteStore {
     @NonNull
     Observable<Website> getWebsite(@NonNull String url);
 
+    /**
+     * Fetches fresh metadata for a previously fetched {@code website}, conditionally when it has
+     * validators. Emits nothing when the store can not revalidate.
+     */
+    @NonNull
+    Observable<Website> revalidateWebsite(@NonNull Website website);
+
     @NonNull
     Observable<Void> clearCache();
 
@@ -26,7 +26,6 @@ import javax.inject.Singleton;
 import arun.com.chromer.appdetect.AppDetectionManager;
 import arun.com.chromer.browsing.customtabs.bottombar.BottomBarReceiver;
 import arun.com.chromer.browsing.customtabs.callbacks.MinimizeBroadcastReceiver;
-import arun.com.chromer.browsing.customtabs.dynamictoolbar.AppColorExtractorJob;
 import arun.com.chromer.data.DataModule;
 import arun.com.chromer.di.activity.ActivityComponent;
 import arun.com.chromer.di.activity.ActivityModule;
@@ -51,8 +50,6 @@ public interface AppComponent {
 
     DefaultTabsManager defaultTabsManager();
 
-    void inject(AppColorExtractorJob appColorExtractorJob);
-
     void inject(BottomBarReceiver bottomBarReceiver);
 
     void inject(MinimizeBroadcastReceiver minimizeBroadcastReceiver);
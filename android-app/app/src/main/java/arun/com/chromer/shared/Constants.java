@@ -76,7 +76,6 @@ public class Constants {
     public static final String EXTRA_KEY_FROM_NEW_TAB = "EXTRA_KEY_FROM_NEW_TAB";
     public static final String EXTRA_KEY_WEBSITE = "EXTRA_KEY_WEBSITE";
     public static final String EXTRA_KEY_MINIMIZE = "EXTRA_KEY_MINIMIZE";
-    public static final String EXTRA_PACKAGE_NAME = "EXTRA_PACKAGE_NAME";
     public static final String EXTRA_KEY_ORIGINAL_URL = "EXTRA_KEY_ORIGINAL_URL";
     public static final String EXTRA_KEY_FROM_ARTICLE = "EXTRA_KEY_FROM_ARTICLE";
     public static final String EXTRA_KEY_FROM_AMP = "EXTRA_KEY_FROM_AMP";
@@ -54,6 +54,7 @@ import arun.com.chromer.shared.Constants.NO_COLOR
 import arun.com.chromer.tabs.ui.TabsActivity
 import arun.com.chromer.util.*
 import arun.com.chromer.util.Utils.openDrawOverlaySettings
+import arun.com.chromer.util.parser.RedirectResolver
 import arun.com.chromer.webheads.WebHeadService
 import com.afollestad.materialdialogs.MaterialDialog
 import com.afollestad.materialdialogs.Theme
@@ -72,7 +73,8 @@ constructor(
         private val appRepository: AppRepository,
         private val websiteRepository: WebsiteRepository,
         private val articlePreloader: ArticlePreloader,
-        private val rxEventBus: RxEventBus
+        private val rxEventBus: RxEventBus,
+        private val redirectResolver: RedirectResolver
 ) : TabsManager {
 
     private val allBrowsingActivitiesName = arrayListOf<String>(
@@ -94,6 +96,21 @@ constructor(
             fromNewTab: Boolean,
             fromAmp: Boolean,
             incognito: Boolean
+    ) = openUrl(context, website, fromApp, fromWebHeads, fromNewTab, fromAmp, incognito, System.currentTimeMillis())
+
+    /**
+     * Same as [openUrl], with [sourceTime] being the time the link was received, used to look up
+     * the app that sent it.
+     */
+    private fun openUrl(
+            context: Context,
+            website: Website,
+            fromApp: Boolean,
+            fromWebHeads: Boolean,
+            fromNewTab: Boolean,
+            fromAmp: Boolean,
+            incognito: Boolean,
+            sourceTime: Long
     ) {
         // Clear non browsing activities if it was external intent.
         if (!fromApp) {
@@ -115,7 +132,7 @@ constructor(
         if (preferences.ampMode() && !fromAmp) {
             if (website.hasAmp()) {
                 // We already got the amp url, so open it in a browsing tab.
-                openBrowsingTab(context, Website.Ampify(website), fromNewTab = fromNewTab, incognito = incognito)
+                openBrowsingTab(context, Website.Ampify(website), fromNewTab = fromNewTab, incognito = incognito, sourceTime = sourceTime)
                 return
             } else if (!fromWebHeads) {
                 // Open a proxy activity, attempt an extraction then open the AMP url if exists.
@@ -135,12 +152,12 @@ constructor(
 
         if (preferences.articleMode()) {
             // Launch article mode
-            openArticle(context, website, incognito = incognito)
+            openArticle(context, website, incognito = incognito, sourceTime = sourceTime)
             return
         }
 
         // If everything failed then launch normally in browsing activity.
-        openBrowsingTab(context, website, fromNewTab = fromNewTab, incognito = incognito)
+        openBrowsingTab(context, website, fromNewTab = fromNewTab, incognito = incognito, sourceTime = sourceTime)
     }
 
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -179,7 +196,7 @@ constructor(
                             val url = intent.dataString
                             val componentClassName = intent.component!!.className
 
-                            val urlMatches = url != null && website.matches(url)
+                            val urlMatches = url != null && website.matches(url, redirectResolver)
 
                             val taskComponentMatches = activityNames?.contains(componentClassName)
                                     ?: allBrowsingActivitiesName.contains(componentClassName)
@@ -212,27 +229,32 @@ constructor(
         // Safety check against malicious intents
         val safeIntent = SafeIntent(intent)
         val url = safeIntent.dataString
+        val receivedTime = System.currentTimeMillis()
 
         // The first thing to check is if we should blacklist.
         if (preferences.perAppSettings()) {
-            val lastApp = appDetectionManager.nonFilteredPackage
+            val lastApp = appDetectionManager.getNonFilteredPackageAt(receivedTime)
             if (lastApp.isNotEmpty()) {
                 if (appRepository.isPackageBlacklisted(lastApp)) {
                     doBlacklistAction(activity, safeIntent)
                     return
                 } else if (appRepository.isPackageIncognito(lastApp)) {
-                    doIncognitoAction(activity, url)
+                    doIncognitoAction(activity, url, receivedTime)
                     return
                 }
             }
         }
 
         // Open url normally
-        openUrl(activity, Website(url), fromApp = false)
+        openUrl(activity, Website(url), fromApp = false, fromWebHeads = false, fromNewTab = false,
+                fromAmp = false, incognito = false, sourceTime = receivedTime)
     }
 
+    override fun openArticle(context: Context, website: Website, newTab: Boolean, incognito: Boolean) =
+            openArticle(context, website, newTab, incognito, System.currentTimeMillis())
+
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    override fun openArticle(context: Context, website: Website, newTab: Boolean, incognito: Boolean) {
+    private fun openArticle(context: Context, website: Website, newTab: Boolean = false, incognito: Boolean, sourceTime: Long) {
         if (!reOrderTabByUrl(context, website, listOf(ArticleActivity::class.java.name))) {
             val intent = Intent(context, ArticleActivity::class.java).apply {
                 data = website.preferredUri()
@@ -246,14 +268,17 @@ constructor(
                 if (incognito) {
                     putExtra(Constants.EXTRA_KEY_INCOGNITO, true)
                 }
-                putExtra(Constants.EXTRA_KEY_TOOLBAR_COLOR, getToolbarColor(website))
+                putExtra(Constants.EXTRA_KEY_TOOLBAR_COLOR, getToolbarColor(website, sourceTime))
             }
             context.startActivity(intent)
         }
     }
 
+    override fun openBrowsingTab(context: Context, website: Website, smart: Boolean, fromNewTab: Boolean, activityNames: List<String>?, incognito: Boolean) =
+            openBrowsingTab(context, website, smart, fromNewTab, activityNames, incognito, System.currentTimeMillis())
+
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    override fun openBrowsingTab(context: Context, website: Website, smart: Boolean, fromNewTab: Boolean, activityNames: List<String>?, incognito: Boolean) {
+    private fun openBrowsingTab(context: Context, website: Website, smart: Boolean = false, fromNewTab: Boolean, activityNames: List<String>? = null, incognito: Boolean, sourceTime: Long) {
         val reordered = smart && reOrderTabByUrl(context, website, activityNames)
 
         if (!reordered) {
@@ -266,7 +291,7 @@ constructor(
             }.apply {
                 data = website.preferredUri()
                 putExtra(Constants.EXTRA_KEY_WEBSITE, website)
-                putExtra(Constants.EXTRA_KEY_TOOLBAR_COLOR, getToolbarColor(website))
+                putExtra(Constants.EXTRA_KEY_TOOLBAR_COLOR, getToolbarColor(website, sourceTime))
                 if (isIncognito) {
                     putExtra(Constants.EXTRA_KEY_INCOGNITO, true)
                 }
@@ -423,17 +448,18 @@ constructor(
     }
 
     /**
-     * Get customized toolbar color based on user preferences
+     * Get customized toolbar color based on user preferences, [sourceTime] being the time the link
+     * was received.
      */
     @ColorInt
-    private fun getToolbarColor(website: Website): Int {
+    private fun getToolbarColor(website: Website, sourceTime: Long): Int {
         if (preferences.isColoredToolbar) {
             if (preferences.dynamicToolbar()) {
                 var appColor = Constants.NO_COLOR
                 var websiteColor = Constants.NO_COLOR
 
                 if (preferences.dynamicToolbarOnApp()) {
-                    appColor = appRepository.getPackageColorSync(appDetectionManager.filteredPackage)
+                    appColor = appRepository.getPackageColorSync(appDetectionManager.getFilteredPackageAt(sourceTime))
                 }
                 if (preferences.dynamicToolbarOnWeb()) {
                     websiteColor = websiteRepository.getWebsiteColorSync(website.url)
@@ -453,8 +479,9 @@ constructor(
     }
 
 
-    private fun doIncognitoAction(activity: Activity, url: String) {
-        openUrl(activity, Website(url), fromApp = false, incognito = true)
+    private fun doIncognitoAction(activity: Activity, url: String, receivedTime: Long) {
+        openUrl(activity, Website(url), fromApp = false, fromWebHeads = false, fromNewTab = false,
+                fromAmp = false, incognito = true, sourceTime = receivedTime)
         if (BuildConfig.DEBUG) {
             Toast.makeText(activity, "Incognito", Toast.LENGTH_SHORT).show()
         }
@@ -0,0 +1,86 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util
+
+import rx.Observable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Deduplicates concurrent work by key. While an [Observable] started through [execute] for a key
+ * has not terminated, later calls for the same key subscribe to it instead of starting their
+ * own, and receive the same items or error.
+ *
+ * The shared work is unsubscribed from once all of its subscribers have unsubscribed, so that work
+ * nobody waits for any more does not keep running. A later call for the key starts it again.
+ */
+class SingleFlight<K : Any, T> {
+
+    private val inFlight = ConcurrentHashMap<K, Flight>()
+
+    val stats = Stats()
+
+    /**
+     * Returns an [Observable] that, when subscribed, joins the in flight work for [key] or starts
+     * it by subscribing to the result of [upstream].
+     */
+    fun execute(key: K, upstream: () -> Observable<T>): Observable<T> = Observable.defer {
+        val existing = inFlight[key]
+        if (existing != null) {
+            stats.joined.incrementAndGet()
+            return@defer existing.observable
+        }
+        val created = Flight(key, upstream())
+        val raced = inFlight.putIfAbsent(key, created)
+        if (raced != null) {
+            stats.joined.incrementAndGet()
+            raced.observable
+        } else {
+            stats.started.incrementAndGet()
+            created.observable
+        }
+    }
+
+    /**
+     * Number of keys with work in flight.
+     */
+    fun size() = inFlight.size
+
+    private inner class Flight(key: K, upstream: Observable<T>) {
+        val observable: Observable<T> = upstream
+                .doOnTerminate { inFlight.remove(key, this) }
+                .doOnUnsubscribe { inFlight.remove(key, this) }
+                .replay()
+                .refCount()
+    }
+
+    class Stats {
+        /**
+         * Times the upstream work was started.
+         */
+        val started = AtomicLong()
+        /**
+         * Times a caller joined work already in flight instead of starting its own.
+         */
+        val joined = AtomicLong()
+
+        override fun toString() = "Stats(started=${started.get()}, joined=${joined.get()})"
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import rx.Observable
+import rx.Subscriber
+import rx.schedulers.Schedulers
+import rx.subscriptions.Subscriptions
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Admits page extractions, which hold a connection and a parsed document each, at most
+ * [maxConcurrent] at a time. Waiting extractions start in [Priority] order and in arrival order
+ * within a priority.
+ *
+ * An extraction that is unsubscribed from while waiting never starts, and one that is unsubscribed
+ * from while running is unsubscribed from its upstream and frees its slot. A waiting extraction
+ * scheduled with a key can be moved to a more urgent lane through [promote], for when a more urgent
+ * request joins it.
+ */
+@Singleton
+class ExtractionScheduler(private val maxConcurrent: Int) {
+
+    @Inject
+    constructor() : this(MAX_CONCURRENT_EXTRACTIONS)
+
+    enum class Priority {
+        /**
+         * The page the user is looking at.
+         */
+        FOREGROUND,
+        /**
+         * Pages in web heads, visible but not opened yet.
+         */
+        WEB_HEAD,
+        /**
+         * Work the user did not ask for yet, such as preloading articles or revalidating caches.
+         */
+        PREFETCH
+    }
+
+    private val lanes = Priority.values().map { ArrayDeque<Task>() }
+    private var running = 0
+    private val lock = Any()
+
+    val stats = Stats()
+
+    /**
+     * Returns an [Observable] that, when subscribed, waits for a free slot in the lane of
+     * [priority] and then subscribes to [upstream] on the io scheduler.
+     *
+     * @param key Identifies the extraction for [promote], if given.
+     */
+    @JvmOverloads
+    fun <T> schedule(priority: Priority, upstream: Observable<T>, key: Any? = null): Observable<T> = Observable.unsafeCreate { subscriber ->
+        val task = Task(priority, key) { task ->
+            upstream.subscribeOn(Schedulers.io()).unsafeSubscribe(object : Subscriber<T>(subscriber) {
+                override fun onNext(item: T) = subscriber.onNext(item)
+
+                override fun onError(e: Throwable) {
+                    task.finish()
+                    subscriber.onError(e)
+                }
+
+                override fun onCompleted() {
+                    task.finish()
+                    subscriber.onCompleted()
+                }
+            })
+        }
+        // Enqueued first so that the hook, which runs at once if already unsubscribed, only ever
+        // finds the task waiting or holding a slot.
+        enqueue(task)
+        subscriber.add(Subscriptions.create {
+            if (!dequeue(task)) {
+                task.finish()
+            }
+        })
+    }
+
+    /**
+     * Moves waiting extractions scheduled with [key] to the lane of [priority] if it is more urgent
+     * than theirs. Running extractions and ones already as urgent are left alone.
+     *
+     * @return Number of extractions promoted.
+     */
+    fun promote(key: Any, priority: Priority): Int {
+        val promoted = synchronized(lock) {
+            var count = 0
+            for (lane in priority.ordinal + 1 until lanes.size) {
+                val iterator = lanes[lane].iterator()
+                while (iterator.hasNext()) {
+                    val task = iterator.next()
+                    if (task.key == key) {
+                        iterator.remove()
+                        task.priority = priority
+                        lanes[priority.ordinal].addLast(task)
+                        count++
+                    }
+                }
+            }
+            count
+        }
+        if (promoted > 0) {
+            stats.promoted.addAndGet(promoted.toLong())
+        }
+        return promoted
+    }
+
+    /**
+     * Number of extractions waiting in the lane of [priority].
+     */
+    fun queueDepth(priority: Priority): Int = synchronized(lock) { lanes[priority.ordinal].size }
+
+    private fun enqueue(task: Task) {
+        synchronized(lock) {
+            lanes[task.priority.ordinal].addLast(task)
+        }
+        drain()
+    }
+
+    /**
+     * Removes [task] if it is still waiting.
+     */
+    private fun dequeue(task: Task): Boolean {
+        // The lane is read under the lock since promote() may move the task.
+        val removed = synchronized(lock) { lanes[task.priority.ordinal].remove(task) }
+        if (removed) {
+            stats.cancelled.incrementAndGet()
+        }
+        return removed
+    }
+
+    private fun onFinished() {
+        synchronized(lock) { running-- }
+        drain()
+    }
+
+    /**
+     * Starts waiting tasks while there are free slots. Tasks are started outside the lock since
+     * starting one may finish it, and with it start the next one, synchronously.
+     */
+    private fun drain() {
+        while (true) {
+            val next = synchronized(lock) {
+                if (running >= maxConcurrent) {
+                    return
+                }
+                val task = lanes.firstOrNull { it.isNotEmpty() }?.removeFirst() ?: return
+                running++
+                task
+            }
+            next.start()
+        }
+    }
+
+    private inner class Task(
+            // Guarded by lock.
+            var priority: Priority,
+            val key: Any?,
+            private val action: (Task) -> Unit
+    ) {
+        private val enqueuedAt = System.nanoTime()
+        private val finished = AtomicBoolean()
+
+        fun start() {
+            stats.recordStart(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueuedAt))
+            // Unsubscribed from between leaving the queue and getting here.
+            if (!finished.get()) {
+                action(this)
+            }
+        }
+
+        fun finish() {
+            if (finished.compareAndSet(false, true)) {
+                onFinished()
+            }
+        }
+    }
+
+    class Stats {
+        /**
+         * Extractions started.
+         */
+        val started = AtomicLong()
+        /**
+         * Extractions unsubscribed from before they started.
+         */
+        val cancelled = AtomicLong()
+        /**
+         * Waiting extractions moved to a more urgent lane.
+         */
+        val promoted = AtomicLong()
+        /**
+         * Total time started extractions waited for a slot.
+         */
+        val totalWaitMs = AtomicLong()
+        /**
+         * Longest time an extraction waited for a slot.
+         */
+        val maxWaitMs = AtomicLong()
+
+        internal fun recordStart(waitMs: Long) {
+            started.incrementAndGet()
+            totalWaitMs.addAndGet(waitMs)
+            var max = maxWaitMs.get()
+            while (waitMs > max && !maxWaitMs.compareAndSet(max, waitMs)) {
+                max = maxWaitMs.get()
+            }
+        }
+
+        override fun toString() = "Stats(started=${started.get()}, cancelled=${cancelled.get()}, promoted=${promoted.get()}, " +
+                "totalWaitMs=${totalWaitMs.get()}, maxWaitMs=${maxWaitMs.get()})"
+    }
+
+    companion object {
+        private val MAX_CONCURRENT_EXTRACTIONS = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors()))
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * Source of the connections {@link WebsiteUtilities} fetches pages with. Implementations decide how
+ * connections are pooled and how many may be open to a host at once.
+ */
+public interface FetchEngine {
+    /**
+     * Opens a connection to {@code url} that is not connected yet, so that callers can still set
+     * the request method and headers. Every opened connection must be handed back to
+     * {@link #release(HttpURLConnection, boolean)}.
+     */
+    @NonNull
+    HttpURLConnection open(@NonNull String url, int timeoutMs) throws IOException;
+
+    /**
+     * Finishes the exchange on {@code connection}.
+     *
+     * @param reusable true if the response body was read or closed normally, so the underlying
+     *                 socket may serve the next request to the same host.
+     */
+    void release(@NonNull HttpURLConnection connection, boolean reusable);
+}
@@ -0,0 +1,536 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.chimbori.crux.common.StringUtils;
+
+import org.jsoup.parser.Parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import arun.com.chromer.util.parser.WebsiteUtilities.Converter;
+
+/**
+ * Extracts {@link PageMetadata} from a page while it streams in, reading no further than the end of
+ * its head tag.
+ * <p>
+ * The tokenizer works on raw bytes. Tag and attribute names are ASCII in every charset a page can
+ * declare, so only the title and the few attribute values that are kept get decoded, once the
+ * charset is known from a {@code <meta charset>} declaration. Reading stops at {@code </head>}, at
+ * {@code <body} or at any other tag that can only appear in the body, which is also where minified
+ * single line pages end their head.
+ */
+class HeadTagExtractor {
+    /**
+     * Upper bound of bytes read while looking for the end of the head tag.
+     */
+    static final int MAX_HEAD_BYTES = 256 * 1024;
+    private static final int BUFFER_SIZE = 2048;
+
+    private static final byte[] END_TITLE = ascii("</title");
+    private static final byte[] END_SCRIPT = ascii("</script");
+    private static final byte[] END_STYLE = ascii("</style");
+
+    /**
+     * Tags that start the body, so that pages without a {@code </head>} are not read to the end.
+     */
+    private static final Set<String> BODY_TAGS = new HashSet<>(Arrays.asList(
+            "body", "div", "p", "h1", "h2", "h3", "h4", "h5", "h6", "main", "header", "footer", "nav",
+            "article", "section", "aside", "table", "ul", "ol", "form"));
+
+    private static final int ICON_TIER_ICON = 0;
+    private static final int ICON_TIER_APPLE_TOUCH = 1;
+    private static final int ICON_TIER_SHORTCUT = 2;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private int bytesRead;
+
+    private ByteArrayOutputStream title;
+    private String declaredCharset;
+    private final Map<String, byte[]> metas = new HashMap<>();
+    private byte[] canonicalHref;
+    private byte[] ampHref;
+    private byte[] iconHref;
+    private int iconTier = Integer.MAX_VALUE;
+    private int iconSize = -1;
+
+    HeadTagExtractor(@NonNull InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Number of bytes consumed from the stream so far.
+     */
+    int getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads the head tag of the page at {@code pageUrl}.
+     *
+     * @param charset Charset from the response headers, used when the page does not declare one.
+     */
+    @NonNull
+    PageMetadata extract(@NonNull String pageUrl, @Nullable String charset) throws IOException {
+        int b;
+        while ((b = read()) != -1) {
+            if (b == '<' && !readMarkup()) {
+                break;
+            }
+        }
+        return buildMetadata(pageUrl, resolveCharset(charset));
+    }
+
+    /**
+     * Reads the markup following a {@code <}.
+     *
+     * @return false once the head tag has ended.
+     */
+    private boolean readMarkup() throws IOException {
+        final int next = peek();
+        if (next == '!') {
+            read();
+            if (peek() == '-') {
+                skipComment();
+            } else {
+                skipTag();
+            }
+            return true;
+        } else if (next == '?') {
+            read();
+            readName();
+            final Map<String, byte[]> attributes = readTag();
+            final byte[] encoding = attributes.get("encoding");
+            if (declaredCharset == null && encoding != null) {
+                declaredCharset = asciiString(encoding);
+            }
+            return true;
+        } else if (next == '/') {
+            read();
+            final String name = readName();
+            skipTag();
+            return !name.equals("head") && !name.equals("html");
+        } else if (isLetter(next)) {
+            final String name = readName();
+            switch (name) {
+                case "html":
+                case "head":
+                case "base":
+                case "noscript":
+                case "template":
+                    skipTag();
+                    return true;
+                case "title":
+                    skipTag();
+                    if (title == null) {
+                        title = new ByteArrayOutputStream();
+                        skipUntil(END_TITLE, title);
+                    } else {
+                        skipUntil(END_TITLE, null);
+                    }
+                    return true;
+                case "script":
+                    skipTag();
+                    skipUntil(END_SCRIPT, null);
+                    return true;
+                case "style":
+                    skipTag();
+                    skipUntil(END_STYLE, null);
+                    return true;
+                case "meta":
+                    onMeta(readTag());
+                    return true;
+                case "link":
+                    onLink(readTag());
+                    return true;
+                default:
+                    // Tags that only appear in the body end the head, even if it was not closed.
+                    // Others, like tracking pixels in <noscript>, are skipped.
+                    skipTag();
+                    return !BODY_TAGS.contains(name);
+            }
+        }
+        // A stray '<' in text.
+        return true;
+    }
+
+    private void onMeta(@NonNull Map<String, byte[]> attributes) {
+        final byte[] charset = attributes.get("charset");
+        if (charset != null) {
+            declaredCharset = asciiString(charset);
+            return;
+        }
+        final byte[] content = attributes.get("content");
+        if (content == null) {
+            return;
+        }
+        final byte[] httpEquiv = attributes.get("http-equiv");
+        if (httpEquiv != null && asciiString(httpEquiv).equalsIgnoreCase("content-type")) {
+            final String value = asciiString(content).toLowerCase(Locale.US);
+            final int index = value.indexOf("charset=");
+            if (index >= 0 && declaredCharset == null) {
+                declaredCharset = Converter.encodingCleanup(value.substring(index + "charset=".length()));
+            }
+            return;
+        }
+        putMeta(attributes.get("name"), content);
+        putMeta(attributes.get("property"), content);
+    }
+
+    private void putMeta(@Nullable byte[] key, @NonNull byte[] content) {
+        if (key != null) {
+            final String name = asciiString(key).toLowerCase(Locale.US);
+            if (!metas.containsKey(name)) {
+                metas.put(name, content);
+            }
+        }
+    }
+
+    private void onLink(@NonNull Map<String, byte[]> attributes) {
+        final byte[] relValue = attributes.get("rel");
+        final byte[] href = attributes.get("href");
+        if (relValue == null || href == null) {
+            return;
+        }
+        final String rel = asciiString(relValue).trim().toLowerCase(Locale.US);
+        if (rel.equals("canonical")) {
+            if (canonicalHref == null) {
+                canonicalHref = href;
+            }
+            return;
+        }
+        if (rel.equals("amphtml")) {
+            if (ampHref == null) {
+                ampHref = href;
+            }
+            return;
+        }
+        final int tier;
+        if (rel.equals("icon")) {
+            tier = ICON_TIER_ICON;
+        } else if (rel.startsWith("apple-touch-icon")) {
+            tier = ICON_TIER_APPLE_TOUCH;
+        } else if (rel.startsWith("shortcut") || rel.endsWith("icon")) {
+            tier = ICON_TIER_SHORTCUT;
+        } else {
+            return;
+        }
+        // Within a tier the largest icon wins, the first one if no sizes are declared.
+        final int size = tier == ICON_TIER_SHORTCUT ? 0 : iconSize(attributes.get("sizes"));
+        if (tier < iconTier || (tier == iconTier && size > iconSize)) {
+            iconTier = tier;
+            iconSize = size;
+            iconHref = href;
+        }
+    }
+
+    /**
+     * Largest width in a {@code sizes} attribute such as {@code "16x16 32x32"}.
+     */
+    private static int iconSize(@Nullable byte[] sizes) {
+        if (sizes == null) {
+            return 0;
+        }
+        int largest = 0;
+        for (String size : asciiString(sizes).toLowerCase(Locale.US).split("\\s+")) {
+            if (size.equals("any")) {
+                return Integer.MAX_VALUE;
+            }
+            final int x = size.indexOf('x');
+            if (x > 0) {
+                try {
+                    largest = Math.max(largest, Integer.parseInt(size.substring(0, x)));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return largest;
+    }
+
+    @NonNull
+    private PageMetadata buildMetadata(@NonNull String pageUrl, @NonNull String charset) {
+        final PageMetadata metadata = new PageMetadata();
+        String title = this.title != null ? innerTrim(decode(this.title.toByteArray(), charset)) : null;
+        if (title == null) {
+            title = firstMeta(charset, "title", "og:title", "twitter:title");
+        }
+        metadata.title = title != null ? StringUtils.cleanTitle(title) : null;
+        metadata.canonicalUrl = absoluteUrl(pageUrl, canonicalHref != null
+                ? decode(canonicalHref, charset)
+                : firstMeta(charset, "og:url", "twitter:url"));
+        metadata.ampUrl = absoluteUrl(pageUrl, ampHref != null ? decode(ampHref, charset) : null);
+        metadata.faviconUrl = absoluteUrl(pageUrl, iconHref != null ? decode(iconHref, charset) : null);
+        metadata.themeColor = firstMeta(charset, "theme-color");
+        return metadata;
+    }
+
+    @Nullable
+    private String firstMeta(@NonNull String charset, @NonNull String... names) {
+        for (String name : names) {
+            final byte[] content = metas.get(name);
+            if (content != null) {
+                final String value = innerTrim(decode(content, charset));
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private String resolveCharset(@Nullable String headerCharset) {
+        for (String candidate : new String[]{declaredCharset, headerCharset}) {
+            try {
+                if (candidate != null && !candidate.isEmpty() && Charset.isSupported(candidate)) {
+                    return candidate;
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Illegal charset name.
+            }
+        }
+        return Converter.UTF8;
+    }
+
+    /**
+     * Reads the attributes up to the end of the current tag.
+     */
+    @NonNull
+    private Map<String, byte[]> readTag() throws IOException {
+        final Map<String, byte[]> attributes = new HashMap<>();
+        while (true) {
+            skipWhitespace();
+            final int c = peek();
+            if (c == -1) {
+                return attributes;
+            } else if (c == '>') {
+                read();
+                return attributes;
+            } else if (c == '/' || c == '?' || c == '=' || c == '"' || c == '\'') {
+                read();
+                continue;
+            }
+            final String name = readName();
+            if (name.isEmpty()) {
+                read();
+                continue;
+            }
+            skipWhitespace();
+            byte[] value = new byte[0];
+            if (peek() == '=') {
+                read();
+                skipWhitespace();
+                value = readAttributeValue();
+            }
+            if (!attributes.containsKey(name)) {
+                attributes.put(name, value);
+            }
+        }
+    }
+
+    @NonNull
+    private byte[] readAttributeValue() throws IOException {
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        final int quote = peek();
+        if (quote == '"' || quote == '\'') {
+            read();
+            int c;
+            while ((c = read()) != -1 && c != quote) {
+                value.write(c);
+            }
+        } else {
+            int c;
+            while ((c = peek()) != -1 && c != '>' && !isWhitespace(c)) {
+                value.write(read());
+            }
+        }
+        return value.toByteArray();
+    }
+
+    /**
+     * Skips to the end of the current tag, ignoring any '>' in quoted attribute values.
+     */
+    private void skipTag() throws IOException {
+        int quote = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips a comment up to and including its closing {@code -->}.
+     */
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    /**
+     * Skips raw text up to and including {@code terminator}, matched case insensitively, copying the
+     * text before it to {@code sink}. The end tag is skipped up to its closing '>'.
+     */
+    private void skipUntil(@NonNull byte[] terminator, @Nullable ByteArrayOutputStream sink) throws IOException {
+        int matched = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (toLower(c) == terminator[matched]) {
+                matched++;
+                if (matched == terminator.length) {
+                    skipTag();
+                    return;
+                }
+            } else {
+                if (sink != null) {
+                    sink.write(terminator, 0, matched);
+                }
+                // End tags do not repeat their leading '<', so a mismatch can only restart there.
+                matched = toLower(c) == terminator[0] ? 1 : 0;
+                if (matched == 0 && sink != null) {
+                    sink.write(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a tag or attribute name, lower cased.
+     */
+    @NonNull
+    private String readName() throws IOException {
+        final StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = peek()) != -1 && c != '>' && c != '/' && c != '=' && !isWhitespace(c)) {
+            name.append((char) toLower(read()));
+        }
+        return name.toString();
+    }
+
+    private void skipWhitespace() throws IOException {
+        while (isWhitespace(peek())) {
+            read();
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        if (bytesRead >= MAX_HEAD_BYTES) {
+            return false;
+        }
+        final int count = in.read(buffer, 0, Math.min(BUFFER_SIZE, MAX_HEAD_BYTES - bytesRead));
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        bytesRead += count;
+        return true;
+    }
+
+    @Nullable
+    private static String absoluteUrl(@NonNull String pageUrl, @Nullable String url) {
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+        return StringUtils.makeAbsoluteUrl(pageUrl, StringUtils.urlEncodeSpaceCharacter(url.trim()));
+    }
+
+    @NonNull
+    private static String decode(@NonNull byte[] bytes, @NonNull String charset) {
+        String value;
+        try {
+            value = new String(bytes, charset);
+        } catch (UnsupportedEncodingException e) {
+            value = new String(bytes, Charset.forName(Converter.UTF8));
+        }
+        return value.indexOf('&') >= 0 ? Parser.unescapeEntities(value, true) : value;
+    }
+
+    @Nullable
+    private static String innerTrim(@NonNull String value) {
+        final String trimmed = StringUtils.innerTrim(value);
+        return trimmed == null || trimmed.isEmpty() ? null : trimmed;
+    }
+
+    @NonNull
+    private static String asciiString(@NonNull byte[] bytes) {
+        return new String(bytes, Charset.forName(Converter.ISO));
+    }
+
+    @NonNull
+    private static byte[] ascii(@NonNull String value) {
+        return value.getBytes(Charset.forName(Converter.ISO));
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+}
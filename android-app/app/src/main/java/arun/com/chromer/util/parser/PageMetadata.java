@@ -0,0 +1,39 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Metadata of a web page as declared in its head tag. Urls are absolute, and any field is null
+ * when the page does not declare it.
+ */
+public class PageMetadata {
+    @Nullable
+    public String title;
+    @Nullable
+    public String canonicalUrl;
+    @Nullable
+    public String ampUrl;
+    @Nullable
+    public String faviconUrl;
+    @Nullable
+    public String themeColor;
+}
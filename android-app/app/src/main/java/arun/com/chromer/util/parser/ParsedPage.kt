@@ -0,0 +1,35 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+/**
+ * Metadata extracted from the page at [url], or a null [metadata] when the page is not an article or
+ * could not be parsed. [etag] and [lastModified] are the validators of the response, used to
+ * revalidate the page later with [RxParser.revalidateUrl].
+ *
+ * @param notModified true when a revalidation found the page unchanged, [metadata] is null then.
+ */
+data class ParsedPage(
+        val url: String,
+        val metadata: PageMetadata?,
+        val etag: String? = null,
+        val lastModified: String? = null,
+        val notModified: Boolean = false
+)
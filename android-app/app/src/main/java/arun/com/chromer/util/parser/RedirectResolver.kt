@@ -0,0 +1,217 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import android.annotation.SuppressLint
+import android.app.Application
+import android.os.Parcelable
+import android.support.annotation.WorkerThread
+import arun.com.chromer.util.SingleFlight
+import com.chimbori.crux.urls.CruxURL
+import `in`.arunkumarsampath.diskcache.ParcelDiskCache
+import kotlinx.android.parcel.Parcelize
+import rx.Observable
+import rx.schedulers.Schedulers
+import timber.log.Timber
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Resolves the url a link finally lands on. Known redirector urls are unwrapped offline and the
+ * remaining chain is followed once over the network.
+ *
+ * Every url of a followed chain is remembered with its target in an index that is kept in memory,
+ * bounded to [MAX_ENTRIES], and persisted to disk. The index is consulted before each network hop,
+ * and can be queried from the main thread through [peekTarget]. Entries expire after
+ * [PERMANENT_TTL_MS] when every hop of the chain was a permanent redirect, and after
+ * [TEMPORARY_TTL_MS] otherwise. Urls found not to redirect are remembered as their own target for
+ * [TEMPORARY_TTL_MS].
+ */
+@Singleton
+class RedirectResolver
+@Inject
+constructor(application: Application) {
+
+    private val redirectCache: ParcelDiskCache<Entry>? = try {
+        ParcelDiskCache.open<Entry>(application, Entry::class.java.classLoader, "RedirectCache", DISK_CACHE_SIZE)
+                .apply { shouldSaveInBackground() }
+    } catch (e: IOException) {
+        Timber.e(e)
+        null
+    }
+
+    private val index = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>): Boolean {
+            if (size <= MAX_ENTRIES) {
+                return false
+            }
+            // Keeps the disk bounded too, as the index is loaded back from it on every start.
+            removeFromDisk(eldest.key)
+            return true
+        }
+    }
+
+    /**
+     * Loads the index from disk once. Resolutions wait for it, [peekTarget] does not.
+     */
+    private val indexLoaded: Observable<Unit> = Observable.fromCallable { loadIndex() }
+            .subscribeOn(Schedulers.io())
+            .cache()
+
+    private val resolutions = SingleFlight<String, String>()
+
+    init {
+        indexLoaded.subscribe({}, Timber::e)
+    }
+
+    /**
+     * Emits the url [url] redirects to, or [url] itself when it does not redirect or the chain
+     * could not be followed. Concurrent calls for the same url share one resolution.
+     */
+    fun resolve(url: String): Observable<String> = indexLoaded.flatMap {
+        val cached = peekTarget(url)
+        if (cached != null) {
+            Observable.just(cached)
+        } else {
+            resolutions.execute(url) { Observable.fromCallable { resolveNow(url) } }
+        }
+    }.subscribeOn(Schedulers.io())
+
+    /**
+     * Target of [url] if it is known and has not expired. Never touches the network or the disk, so
+     * it is safe to call from the main thread.
+     */
+    fun peekTarget(url: String): String? {
+        val key = url.trim()
+        synchronized(index) {
+            val entry = index[key] ?: return null
+            if (entry.expiresAt > System.currentTimeMillis()) {
+                return entry.target
+            }
+            // Dropped from disk the next time the index is loaded.
+            index.remove(key)
+            return null
+        }
+    }
+
+    @WorkerThread
+    private fun resolveNow(url: String): String {
+        val chain = mutableListOf(url.trim())
+        var current = unwrap(url.trim())
+        var expiresAt = Long.MAX_VALUE
+        var permanent = true
+        // Whether current was seen not to redirect, rather than found in the index or given up on.
+        var landed = false
+        try {
+            for (i in 0 until MAX_REDIRECTS) {
+                val known = synchronized(index) { index[current] }
+                if (known != null && known.expiresAt > System.currentTimeMillis()) {
+                    expiresAt = known.expiresAt
+                    current = known.target
+                    break
+                }
+                val redirect = WebsiteUtilities.getRedirect(current)
+                if (redirect == null) {
+                    landed = true
+                    break
+                }
+                permanent = permanent && redirect.permanent
+                chain.add(current)
+                current = unwrap(redirect.location)
+                Timber.d("Redirect: %s", current)
+            }
+        } catch (e: IOException) {
+            // Not remembered, the next request retries.
+            Timber.d(e, "Could not resolve redirects of %s", url)
+            return url
+        }
+        val ttl = if (permanent) PERMANENT_TTL_MS else TEMPORARY_TTL_MS
+        expiresAt = Math.min(expiresAt, System.currentTimeMillis() + ttl)
+        chain.filter { it != current }
+                .distinct()
+                .forEach { put(Entry(it, current, expiresAt)) }
+        if (landed) {
+            // Urls that do not redirect are remembered too, only briefly as that may change.
+            put(Entry(current, current, System.currentTimeMillis() + TEMPORARY_TTL_MS))
+        }
+        return current
+    }
+
+    private fun put(entry: Entry) {
+        synchronized(index) { index[entry.source] = entry }
+        try {
+            redirectCache?.set(entry.source, entry)
+        } catch (e: Exception) {
+            Timber.e(e)
+        }
+    }
+
+    @WorkerThread
+    private fun loadIndex() {
+        val entries = try {
+            redirectCache?.all ?: emptyList<Entry>()
+        } catch (e: Exception) {
+            Timber.e(e)
+            emptyList<Entry>()
+        }
+        val now = System.currentTimeMillis()
+        val (live, expired) = entries.partition { it.expiresAt > now }
+        synchronized(index) {
+            live.sortedBy { it.expiresAt }.forEach {
+                if (!index.containsKey(it.source)) {
+                    index[it.source] = it
+                }
+            }
+        }
+        expired.forEach { removeFromDisk(it.source) }
+        Timber.d("Loaded %d redirects, dropped %d expired", live.size, expired.size)
+    }
+
+    private fun removeFromDisk(source: String) {
+        try {
+            redirectCache?.remove(source)
+        } catch (e: Exception) {
+            Timber.e(e)
+        }
+    }
+
+    /**
+     * Unwraps redirector urls such as search result links without any network access.
+     */
+    private fun unwrap(url: String): String = try {
+        CruxURL.parse(url)?.resolveRedirects()?.toString() ?: url
+    } catch (e: Exception) {
+        url
+    }
+
+    @SuppressLint("ParcelCreator")
+    @Parcelize
+    data class Entry(val source: String, val target: String, val expiresAt: Long) : Parcelable
+
+    companion object {
+        private const val MAX_REDIRECTS = 5
+        private const val MAX_ENTRIES = 1000
+        private val PERMANENT_TTL_MS = TimeUnit.DAYS.toMillis(30)
+        private val TEMPORARY_TTL_MS = TimeUnit.HOURS.toMillis(1)
+        private const val DISK_CACHE_SIZE = 1024L * 1024
+    }
+}
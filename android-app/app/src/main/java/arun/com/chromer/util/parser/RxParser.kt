@@ -20,7 +20,6 @@
 package arun.com.chromer.util.parser
 
 import android.support.v4.util.Pair
-import arun.com.chromer.util.parser.WebsiteUtilities.headString
 import com.chimbori.crux.articles.Article
 import com.chimbori.crux.articles.ArticleExtractor
 import com.chimbori.crux.urls.CruxURL
@@ -33,58 +32,73 @@ import timber.log.Timber
  */
 object RxParser {
     /**
-     * Converts the given URL to its extracted article metadata form. The extraction is not performed
-     * if the given url is not a proper web url.
+     * Extracts article metadata of [url], fetched from [resolvedUrl], the target of its redirects.
+     * The head request is conditional when [etag] or [lastModified] are given, in which case the
+     * result may be [ParsedPage.notModified].
      */
-    private val URL_TO_METADATA_MAPPER = { url: String ->
-        var article: Article? = null
-        try {
-            val expanded = WebsiteUtilities.unShortenUrl(url)
-            val candidateUrl = CruxURL.parse(expanded)
-            if (candidateUrl.resolveRedirects().isLikelyArticle) {
-                // We only need the head tag for meta data.
-                var webSiteString = headString(candidateUrl.toString())
-                article = ArticleExtractor
-                        .with(expanded, webSiteString)
-                        .extractMetadata()
-                        .article()
-                @Suppress("UNUSED_VALUE")
-                webSiteString = null
-            }
-        } catch (e: Exception) {
-            Timber.e(e)
-        } catch (e: OutOfMemoryError) {
-            Timber.e(e)
+    private fun extractMetadata(url: String, resolvedUrl: String, etag: String?, lastModified: String?): ParsedPage {
+        if (!CruxURL.parse(resolvedUrl).isLikelyArticle) {
+            return ParsedPage(url, null)
+        }
+        // We only need the head tag for meta data.
+        val response = WebsiteUtilities.headResponse(resolvedUrl, etag, lastModified)
+        return if (response.isNotModified) {
+            ParsedPage(url, null, response.etag, response.lastModified, notModified = true)
+        } else {
+            ParsedPage(url, response.metadata, response.etag, response.lastModified)
         }
-        Pair(url, article)
     }
 
-
-    private val URL_TO_WEB_ARTICLE_PAIR_MAPPER = { url: String ->
-        var article: Article? = null
-        try {
-            val cruxURL = CruxURL.parse(url)
-            val isArticle = cruxURL.resolveRedirects().isLikelyArticle
-            if (isArticle) {
-                val document = Jsoup.connect(cruxURL.toString()).get()
-                article = ArticleExtractor.with(cruxURL.toString(), document)
-                        .extractMetadata()
-                        .extractContent()
-                        .article()
+    /**
+     * Converts the given URL to its extracted article metadata form. The extraction is not performed
+     * if the given url is not a proper web url.
+     *
+     * @param resolvedUrl Target of the redirects of [url], see [RedirectResolver].
+     */
+    fun parseUrl(url: String, resolvedUrl: String): Observable<ParsedPage> {
+        return Observable.fromCallable {
+            try {
+                extractMetadata(url, resolvedUrl, null, null)
+            } catch (e: Exception) {
+                Timber.e(e)
+                ParsedPage(url, null)
+            } catch (e: OutOfMemoryError) {
+                Timber.e(e)
+                ParsedPage(url, null)
             }
-        } catch (e: Exception) {
-            Timber.e(e)
-        } catch (e: OutOfMemoryError) {
-            Timber.e(e)
         }
-        Pair(url, article)
     }
 
-    fun parseUrl(url: String?): Observable<Pair<String, Article>> {
-        return Observable.just<String>(url).map(URL_TO_METADATA_MAPPER)
+    /**
+     * Fetches metadata of [url] again, sending the validators of the previous response so that an
+     * unchanged page is answered with [ParsedPage.notModified]. Unlike [parseUrl], network errors are
+     * delivered to the subscriber.
+     */
+    fun revalidateUrl(url: String, resolvedUrl: String, etag: String?, lastModified: String?): Observable<ParsedPage> {
+        return Observable.fromCallable { extractMetadata(url, resolvedUrl, etag, lastModified) }
     }
 
-    fun parseArticle(url: String?): Observable<Pair<String, Article>> {
-        return Observable.just<String>(url).map(URL_TO_WEB_ARTICLE_PAIR_MAPPER)
+    /**
+     * Extracts the article content of [url], fetched from [resolvedUrl], the target of its
+     * redirects.
+     */
+    fun parseArticle(url: String, resolvedUrl: String): Observable<Pair<String, Article>> {
+        return Observable.fromCallable {
+            var article: Article? = null
+            try {
+                if (CruxURL.parse(resolvedUrl).isLikelyArticle) {
+                    val document = Jsoup.parse(WebsiteUtilities.htmlString(resolvedUrl), resolvedUrl)
+                    article = ArticleExtractor.with(resolvedUrl, document)
+                            .extractMetadata()
+                            .extractContent()
+                            .article()
+                }
+            } catch (e: Exception) {
+                Timber.e(e)
+            } catch (e: OutOfMemoryError) {
+                Timber.e(e)
+            }
+            Pair(url, article)
+        }
     }
 }
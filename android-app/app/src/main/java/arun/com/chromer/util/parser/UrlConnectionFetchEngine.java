@@ -0,0 +1,102 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default {@link FetchEngine} on top of {@link HttpURLConnection}.
+ * <p>
+ * The platform keeps idle keep-alive sockets in a shared pool, but only when the response body was
+ * closed and the connection was not {@link HttpURLConnection#disconnect() disconnected}. This engine
+ * disconnects only connections that ended abnormally, so that redirect hops and the page fetch that
+ * follows them reuse one socket, skipping the DNS lookup and TCP and TLS handshakes. It also caps
+ * the number of concurrent connections per host.
+ */
+class UrlConnectionFetchEngine implements FetchEngine {
+    private final int maxConnectionsPerHost;
+    private final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<HttpURLConnection, Semaphore> heldPermits = new ConcurrentHashMap<>();
+
+    UrlConnectionFetchEngine(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    @NonNull
+    @Override
+    public HttpURLConnection open(@NonNull String url, int timeoutMs) throws IOException {
+        final URL parsedUrl = new URL(url);
+        final Semaphore permits = permitsFor(parsedUrl.getHost());
+        try {
+            if (!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Too many connections to " + parsedUrl.getHost());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + parsedUrl.getHost());
+        }
+        try {
+            //using proxy may increase latency
+            final HttpURLConnection connection = (HttpURLConnection) parsedUrl.openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            heldPermits.put(connection, permits);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void release(@NonNull HttpURLConnection connection, boolean reusable) {
+        if (!reusable) {
+            connection.disconnect();
+        }
+        final Semaphore permits = heldPermits.remove(connection);
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    @NonNull
+    private Semaphore permitsFor(@NonNull String host) {
+        final String key = host.toLowerCase(Locale.US);
+        Semaphore permits = hostPermits.get(key);
+        if (permits == null) {
+            final Semaphore created = new Semaphore(maxConnectionsPerHost);
+            permits = hostPermits.putIfAbsent(key, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+}
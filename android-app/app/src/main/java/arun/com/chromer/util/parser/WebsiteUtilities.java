@@ -23,16 +23,17 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -50,143 +51,215 @@ class WebsiteUtilities {
     // does not provide bigger icons when we go as Android.
     private static final String USER_AGENT = "Mozilla/5.0 (iPad; CPU OS 6_0 like Mac OS X) AppleWebKit/536.26 (KHTML, like Gecko) Version/6.0 Mobile/10A5376e Safari/8536.25";
 
+    private static final int TIMEOUT_MS = 10000;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    private static final int HTTP_PERMANENT_REDIRECT = 308;
+    // Rest of a page worth downloading after its head tag to keep the connection alive.
+    private static final int MAX_DRAIN_BYTES = 16 * 1024;
+
+    private static volatile FetchEngine fetchEngine = new UrlConnectionFetchEngine(MAX_CONNECTIONS_PER_HOST);
+
+    static void setFetchEngine(@NonNull FetchEngine engine) {
+        fetchEngine = engine;
+    }
+
     @WorkerThread
     static String htmlString(@NonNull final String url) throws IOException {
-        final HttpURLConnection urlConnection = createUrlConnection(url, 10000);
-        urlConnection.setInstanceFollowRedirects(true);
-        final String encoding = urlConnection.getContentEncoding();
-        final InputStream inputStream;
-        if (encoding != null && encoding.equalsIgnoreCase("gzip")) {
-            inputStream = new GZIPInputStream(urlConnection.getInputStream());
-        } else if (encoding != null && encoding.equalsIgnoreCase("deflate")) {
-            inputStream = new InflaterInputStream(urlConnection.getInputStream(), new Inflater(true));
-        } else {
-            inputStream = urlConnection.getInputStream();
+        final FetchEngine engine = fetchEngine;
+        final HttpURLConnection urlConnection = createUrlConnection(engine, url, TIMEOUT_MS);
+        boolean reusable = false;
+        try {
+            urlConnection.setInstanceFollowRedirects(true);
+            final InputStream inputStream = openBody(urlConnection);
+            final String enc = Converter.extractEncoding(urlConnection.getContentType());
+            // The content length counts compressed bytes for a compressed body.
+            final int lengthHint = urlConnection.getContentEncoding() == null ? urlConnection.getContentLength() : -1;
+            // Closes the stream, throws if the body could not be read in full so that a failed
+            // download is neither parsed as an empty page nor leaves the connection for reuse.
+            final String result = new Converter(url).readString(inputStream, enc, lengthHint);
+            reusable = true;
+            return result;
+        } finally {
+            engine.release(urlConnection, reusable);
         }
-        final String enc = Converter.extractEncoding(urlConnection.getContentType());
-        final String result = new Converter(url).grabStringFromInputStream(inputStream, enc);
-        urlConnection.disconnect();
-        return result;
     }
 
+    /**
+     * Fetches the head tag of {@code url}. When {@code etag} or {@code lastModified} from an earlier
+     * response are given the request is conditional, and a server that finds the page unchanged
+     * answers without a body.
+     */
     @WorkerThread
-    static String headString(@NonNull final String url) throws IOException {
-        final HttpURLConnection urlConnection = createUrlConnection(url, 10000);
-        urlConnection.setInstanceFollowRedirects(true);
-        final String encoding = urlConnection.getContentEncoding();
-        final InputStream inputStream;
-        if (encoding != null && encoding.equalsIgnoreCase("gzip")) {
-            inputStream = new GZIPInputStream(urlConnection.getInputStream());
-        } else if (encoding != null && encoding.equalsIgnoreCase("deflate")) {
-            inputStream = new InflaterInputStream(urlConnection.getInputStream(), new Inflater(true));
-        } else {
-            inputStream = urlConnection.getInputStream();
-        }
-        final String enc = Converter.extractEncoding(urlConnection.getContentType());
-        final String result = new Converter(url).grabHeadTag(inputStream, enc);
-        urlConnection.disconnect();
+    @NonNull
+    static HeadResponse headResponse(@NonNull final String url, @Nullable String etag, @Nullable String lastModified) throws IOException {
+        final FetchEngine engine = fetchEngine;
+        final HttpURLConnection urlConnection = createUrlConnection(engine, url, TIMEOUT_MS);
+        boolean reusable = false;
         try {
-            inputStream.close();
-        } catch (Exception ignored) {
+            urlConnection.setInstanceFollowRedirects(true);
+            if (etag != null) {
+                urlConnection.setRequestProperty("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", lastModified);
+            }
+            final String responseEtag = urlConnection.getHeaderField("ETag");
+            final String responseLastModified = urlConnection.getHeaderField("Last-Modified");
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                closeBody(urlConnection);
+                reusable = true;
+                return new HeadResponse(null, responseEtag != null ? responseEtag : etag,
+                        responseLastModified != null ? responseLastModified : lastModified);
+            }
+            final InputStream inputStream = openBody(urlConnection);
+            final String enc = Converter.extractEncoding(urlConnection.getContentType());
+            final PageMetadata metadata;
+            try {
+                metadata = new HeadTagExtractor(inputStream).extract(url, enc);
+                // Keep the connection only when the rest of the page is short, otherwise drop it
+                // rather than download a body we do not need.
+                reusable = skipFully(inputStream, MAX_DRAIN_BYTES);
+            } finally {
+                try {
+                    inputStream.close();
+                } catch (Exception ignored) {
 
+                }
+            }
+            return new HeadResponse(metadata, responseEtag, responseLastModified);
+        } finally {
+            engine.release(urlConnection, reusable);
         }
-        return result;
     }
 
+    /**
+     * Returns the response body of {@code urlConnection}, decompressed according to its content
+     * encoding.
+     */
     @NonNull
-    static String unShortenUrl(@NonNull String url) {
-        final int maxRedirects = 3;
-        String unShortenedUrl = url;
-        for (int i = 0; i < maxRedirects; i++) {
-            url = getRedirectUrl(url);
-            Timber.d("Redirect: %s", url);
-            if (url.equalsIgnoreCase(unShortenedUrl)) {
-                return unShortenedUrl;
-            }
-            unShortenedUrl = url;
+    private static InputStream openBody(@NonNull HttpURLConnection urlConnection) throws IOException {
+        final String encoding = urlConnection.getContentEncoding();
+        if (encoding != null && encoding.equalsIgnoreCase("gzip")) {
+            return new GZIPInputStream(urlConnection.getInputStream());
+        } else if (encoding != null && encoding.equalsIgnoreCase("deflate")) {
+            return new InflaterInputStream(urlConnection.getInputStream(), new Inflater(true));
+        } else {
+            return urlConnection.getInputStream();
         }
-        return unShortenedUrl;
     }
 
-    @NonNull
-    private static String getRedirectUrl(@NonNull final String url) {
-        HttpURLConnection conn = null;
+    /**
+     * Skips the rest of {@code inputStream}.
+     *
+     * @return true if the end of the stream was reached within {@code maxBytes}.
+     */
+    private static boolean skipFully(@NonNull InputStream inputStream, int maxBytes) {
+        final byte[] buffer = new byte[Converter.K2];
+        int skipped = 0;
         try {
-            conn = createUrlConnection(url, 10000);
-            conn.setInstanceFollowRedirects(false);
-            conn.setRequestMethod("HEAD");
-            conn.connect();
-            int responseCode = conn.getResponseCode();
-            if (responseCode >= 300 && responseCode < 400) {
-                return useDomainOfFirstArg4Second(url, conn.getHeaderField("Location"));
-            } else if (responseCode >= 200 && responseCode < 300) {
-                return url;
-            }
-        } catch (Exception ex) {
-            return url;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
+            while (skipped <= maxBytes) {
+                final int n = inputStream.read(buffer);
+                if (n < 0) {
+                    return true;
+                }
+                skipped += n;
             }
+        } catch (IOException e) {
+            Timber.d(e, "Failed to skip response body");
         }
-        return url;
+        return false;
     }
 
-    @NonNull
-    private static String useDomainOfFirstArg4Second(String urlForDomain, String path) {
-        if (path.startsWith("http"))
-            return path;
-
-        if ("favicon.ico".equals(path))
-            path = "/favicon.ico";
-
-        if (path.startsWith("//")) {
-            // wikipedia special case, see tests
-            if (urlForDomain.startsWith("https:"))
-                return "https:" + path;
-
-            return "http:" + path;
-        } else if (path.startsWith("/"))
-            return "http://" + extractHost(urlForDomain) + path;
-        else if (path.startsWith("../")) {
-            final int slashIndex = urlForDomain.lastIndexOf("/");
-            if (slashIndex > 0 && slashIndex + 1 < urlForDomain.length())
-                urlForDomain = urlForDomain.substring(0, slashIndex + 1);
-            return urlForDomain + path;
+    /**
+     * Closes the body of a response that has none or whose body is not needed, such as a HEAD,
+     * redirect or not modified response, so that its connection can be reused.
+     */
+    private static void closeBody(@NonNull HttpURLConnection urlConnection) throws IOException {
+        final InputStream body = urlConnection.getResponseCode() >= 400
+                ? urlConnection.getErrorStream()
+                : urlConnection.getInputStream();
+        if (body != null) {
+            body.close();
         }
-        return path;
     }
 
-    @NonNull
-    private static String extractHost(String url) {
-        return extractDomain(url, false);
-    }
+    /**
+     * Metadata from the head tag of a page along with the validators to revalidate it with later.
+     */
+    static final class HeadResponse {
+        /**
+         * Metadata of the page, or null when the server answered 304 Not Modified.
+         */
+        @Nullable
+        final PageMetadata metadata;
+        @Nullable
+        final String etag;
+        @Nullable
+        final String lastModified;
 
-    @NonNull
-    private static String extractDomain(String url, boolean aggressive) {
-        if (url.startsWith("http://"))
-            url = url.substring("http://".length());
-        else if (url.startsWith("https://"))
-            url = url.substring("https://".length());
-
-        if (aggressive) {
-            if (url.startsWith("www."))
-                url = url.substring("www.".length());
-
-            // strip mobile from start
-            if (url.startsWith("m."))
-                url = url.substring("m.".length());
+        HeadResponse(@Nullable PageMetadata metadata, @Nullable String etag, @Nullable String lastModified) {
+            this.metadata = metadata;
+            this.etag = etag;
+            this.lastModified = lastModified;
         }
 
-        int slashIndex = url.indexOf("/");
-        if (slashIndex > 0)
-            url = url.substring(0, slashIndex);
+        boolean isNotModified() {
+            return metadata == null;
+        }
+    }
 
-        return url;
+    /**
+     * Redirect that a url answered with.
+     */
+    static final class Redirect {
+        @NonNull
+        final String location;
+        /**
+         * True for 301 and 308 responses, whose target may be remembered for long.
+         */
+        final boolean permanent;
+
+        Redirect(@NonNull String location, boolean permanent) {
+            this.location = location;
+            this.permanent = permanent;
+        }
     }
 
     /**
-     * Provides a {@link HttpURLConnection} instance for the given url and timeout
+     * Asks {@code url} with a HEAD request whether it redirects.
+     *
+     * @return The redirect, or null if {@code url} does not redirect.
+     * @throws IOException if {@code url} could not be fetched.
+     */
+    @WorkerThread
+    @Nullable
+    static Redirect getRedirect(@NonNull final String url) throws IOException {
+        final FetchEngine engine = fetchEngine;
+        final HttpURLConnection conn = createUrlConnection(engine, url, TIMEOUT_MS);
+        boolean reusable = false;
+        try {
+            conn.setInstanceFollowRedirects(false);
+            conn.setRequestMethod("HEAD");
+            conn.connect();
+            int responseCode = conn.getResponseCode();
+            closeBody(conn);
+            reusable = true;
+            final String location = conn.getHeaderField("Location");
+            if (responseCode >= 300 && responseCode < 400 && location != null) {
+                // Relative locations resolve against the hop, keeping its scheme.
+                final String target = new URL(new URL(url), location).toString();
+                final boolean permanent = responseCode == HttpURLConnection.HTTP_MOVED_PERM || responseCode == HTTP_PERMANENT_REDIRECT;
+                return new Redirect(target, permanent);
+            }
+            return null;
+        } finally {
+            engine.release(conn, reusable);
+        }
+    }
+
+    /**
+     * Provides a {@link HttpURLConnection} instance for the given url and timeout from
+     * {@code engine}. It must be handed back to {@link FetchEngine#release(HttpURLConnection, boolean)}.
      *
      * @param urlAsStr Url to create a connection for.
      * @param timeout  Timeout
@@ -194,25 +267,27 @@ class WebsiteUtilities {
      * @throws IOException
      */
     @NonNull
-    private static HttpURLConnection createUrlConnection(String urlAsStr, int timeout) throws IOException {
-        final URL url = new URL(urlAsStr);
-        //using proxy may increase latency
-        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+    private static HttpURLConnection createUrlConnection(@NonNull FetchEngine engine, String urlAsStr, int timeout) throws IOException {
+        final HttpURLConnection urlConnection = engine.open(urlAsStr, timeout);
         urlConnection.setRequestProperty("User-Agent", USER_AGENT);
         urlConnection.setRequestProperty("Accept", ACCEPT);
         // suggest respond to be gzipped or deflated (which is just another compression)
         // http://stackoverflow.com/q/3932117
         urlConnection.setRequestProperty("Accept-Encoding", "gzip, deflate");
-        urlConnection.setConnectTimeout(timeout);
-        urlConnection.setReadTimeout(timeout);
         return urlConnection;
     }
 
-    private static class Converter {
+    static class Converter {
         final static String UTF8 = "UTF-8";
         final static String ISO = "ISO-8859-1";
         final static int K2 = 2048;
-        private int maxBytes = 1000000 / 2;
+        /**
+         * Bytes at the start of a page searched for a charset declaration.
+         */
+        final static int SNIFF_BYTES = K2 * 2;
+        private final static byte[] CHARSET_KEY = "charset=".getBytes(Charset.forName(ISO));
+        private final static byte[] ENCODING_KEY = "encoding=".getBytes(Charset.forName(ISO));
+        private final int maxBytes = 1000000 / 2;
         private String encoding;
         private String url;
 
@@ -223,11 +298,6 @@ class WebsiteUtilities {
         Converter() {
         }
 
-        public Converter setMaxBytes(int maxBytes) {
-            this.maxBytes = maxBytes;
-            return this;
-        }
-
         /**
          * Tries to extract type of encoding for the given content type.
          *
@@ -262,205 +332,155 @@ class WebsiteUtilities {
         }
 
         @NonNull
-        public String grabStringFromInputStream(InputStream is) {
-            return grabStringFromInputStream(is, maxBytes, encoding);
-        }
-
-        @NonNull
-        String grabStringFromInputStream(InputStream is, String encoding) {
-            return grabStringFromInputStream(is, maxBytes, encoding);
+        String readString(InputStream is, String encoding, int lengthHint) throws IOException {
+            return readString(is, maxBytes, encoding, lengthHint);
         }
 
         /**
-         * reads bytes off the string and returns a string
+         * Reads at most {@code maxBytes} off {@code is} and decodes them in the charset declared in
+         * the first {@link #SNIFF_BYTES} of the page, or in {@code encoding} when the page declares
+         * none. The bytes are decoded once, while they are read. Closes {@code is}.
          *
          * @param is
-         * @param maxBytes The max bytes that we want to read from the input stream
+         * @param maxBytes   The max bytes that we want to read from the input stream
+         * @param lengthHint Expected length of the content in bytes, or -1 if unknown
          * @return String
+         * @throws IOException If {@code is} could not be read
          */
         @NonNull
-        String grabStringFromInputStream(InputStream is, int maxBytes, String encoding) {
+        String readString(InputStream is, int maxBytes, String encoding, int lengthHint) throws IOException {
             this.encoding = encoding;
             // Http 1.1. standard is iso-8859-1 not utf8 :(
             // but we force utf-8 as youtube assumes it ;)
             if (this.encoding == null || this.encoding.isEmpty())
                 this.encoding = UTF8;
 
-            BufferedInputStream in = null;
             try {
-                in = new BufferedInputStream(is, K2);
-                final ByteArrayOutputStream output = new ByteArrayOutputStream();
-
-                // detect encoding with the help of meta tag
+                final byte[] prefix = new byte[Math.min(SNIFF_BYTES, maxBytes)];
+                final int prefixLength = readFully(is, prefix);
+                final String sniffed = sniffCharset(prefix, prefixLength);
+                if (sniffed != null)
+                    this.encoding = sniffed;
+                else
+                    Timber.d("no charset found in second stage");
+
+                Charset charset;
                 try {
-                    in.mark(K2 * 2);
-                    String tmpEncoding = detectCharset("charset=", output, in, this.encoding);
-                    if (tmpEncoding != null)
-                        this.encoding = tmpEncoding;
-                    else {
-                        Timber.d("no charset found in first stage");
-                        // detect with the help of xml beginning ala encoding="charset"
-                        tmpEncoding = detectCharset("encoding=", output, in, this.encoding);
-                        if (tmpEncoding != null)
-                            this.encoding = tmpEncoding;
-                        else
-                            Timber.d("no charset found in second stage");
-                    }
-                    if (!Charset.isSupported(this.encoding))
-                        throw new UnsupportedEncodingException(this.encoding);
-                } catch (UnsupportedEncodingException e) {
+                    charset = Charset.forName(this.encoding);
+                } catch (IllegalArgumentException e) {
                     Timber.e(e, "Using default encoding:%s encoding %s", encoding, url);
                     this.encoding = UTF8;
+                    charset = Charset.forName(UTF8);
                 }
+                // The UTF-8 decoder would keep the byte order mark as a character.
+                final int offset = hasUtf8ByteOrderMark(prefix, prefixLength) ? 3 : 0;
 
                 // SocketException: Connection reset
                 // IOException: missing CR    => problem on server (probably some xml character thing?)
                 // IOException: Premature EOF => socket unexpectly closed from server
-                int bytesRead = output.size();
-                byte[] arr = new byte[K2];
-                while (true) {
-                    if (bytesRead >= maxBytes) {
-                        Timber.w("Maxbyte of %d exceeded! Maybe html is now broken but try it nevertheless. Url: %s ", maxBytes, url);
-                        break;
-                    }
-
-                    int n = in.read(arr);
-                    if (n < 0)
-                        break;
-                    bytesRead += n;
-                    output.write(arr, 0, n);
+                final LimitedInputStream rest = new LimitedInputStream(is, maxBytes - prefixLength);
+                final Reader reader = new InputStreamReader(new SequenceInputStream(
+                        new ByteArrayInputStream(prefix, offset, prefixLength - offset), rest),
+                        charset.newDecoder()
+                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+                // A charset never decodes to more chars than bytes, so a known length is enough room.
+                final StringBuilder builder = new StringBuilder(lengthHint > 0 ? Math.min(lengthHint, maxBytes) : K2 * 8);
+                final char[] chars = new char[K2];
+                int n;
+                while ((n = reader.read(chars)) >= 0) {
+                    builder.append(chars, 0, n);
                 }
-
-                return output.toString(this.encoding);
-            } catch (IOException e) {
-                Timber.e(e, " url: %s", url);
+                if (rest.isExhausted()) {
+                    Timber.w("Maxbyte of %d exceeded! Maybe html is now broken but try it nevertheless. Url: %s ", maxBytes, url);
+                }
+                return builder.toString();
             } finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    } catch (Exception ignored) {
-                    }
+                try {
+                    is.close();
+                } catch (Exception ignored) {
                 }
             }
-            return "";
         }
 
-        @NonNull
-        String grabHeadTag(@NonNull InputStream is, @Nullable String encoding) {
-            this.encoding = encoding;
-            // Http 1.1. standard is iso-8859-1 not utf8 :(
-            // but we force utf-8 as youtube assumes it ;)
-            if (this.encoding == null || this.encoding.isEmpty())
-                this.encoding = UTF8;
+        /**
+         * Finds the charset a page declares in its first {@code length} bytes, with
+         * {@code charset=} as in meta tags or else with {@code encoding=} as in the xml declaration,
+         * and a byte order mark overriding both. Works on the bytes directly, as the declarations
+         * are ASCII in every charset a page may declare.
+         */
+        @Nullable
+        static String sniffCharset(@NonNull byte[] bytes, int length) {
+            if (hasUtf8ByteOrderMark(bytes, length))
+                return UTF8;
+            if (length >= 2 && ((bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF)
+                    || (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE)))
+                return "UTF-16";
+
+            final String charset = declaredValue(bytes, length, CHARSET_KEY);
+            if (charset != null)
+                return charset;
+            Timber.d("no charset found in first stage");
+            // detect with the help of xml beginning ala encoding="charset"
+            return declaredValue(bytes, length, ENCODING_KEY);
+        }
 
-            final StringBuilder headTagContents = new StringBuilder();
+        /**
+         * Returns the value after the first occurrence of {@code key}, matched ignoring ASCII case,
+         * cleaned up like {@link #encodingCleanup(String)}.
+         */
+        @Nullable
+        private static String declaredValue(@NonNull byte[] bytes, int length, @NonNull byte[] key) {
+            for (int i = 0; i + key.length < length; i++) {
+                if (!regionMatches(bytes, i, key))
+                    continue;
+                int start = i + key.length;
+                // charset='something', charset="something" or "text/html; charset=something"
+                while (start < length && (bytes[start] == '\'' || bytes[start] == '"' || bytes[start] == ' '))
+                    start++;
+                int end = start;
+                // assume that the encoding string cannot be greater than 40 chars
+                while (end < length && end - start < 40 && isCharsetNameByte(bytes[end]))
+                    end++;
+                if (end > start && (end == length || !isCharsetNameByte(bytes[end])))
+                    return new String(bytes, start, end - start, Charset.forName(ISO));
+            }
+            return null;
+        }
 
-            BufferedReader bufferedReader = null;
-            InputStreamReader inputStreamReader = null;
-            try {
-                inputStreamReader = new InputStreamReader(is, encoding);
-                bufferedReader = new BufferedReader(inputStreamReader);
-                String temp;
-                boolean insideHeadTag = false;
-                while ((temp = bufferedReader.readLine()) != null) {
-                    if (temp.contains("<head")) {
-                        insideHeadTag = true;
-                    }
-                    if (insideHeadTag) {
-                        headTagContents.append(temp);
-                    }
-                    if (temp.contains("</head>")) {
-                        // Exit
-                        break;
-                    }
-                }
-            } catch (IOException e) {
-                Timber.e(e);
-            } finally {
-                if (inputStreamReader != null) {
-                    try {
-                        inputStreamReader.close();
-                    } catch (Exception ignored) {
+        private static boolean regionMatches(@NonNull byte[] bytes, int offset, @NonNull byte[] lowerCaseKey) {
+            for (int i = 0; i < lowerCaseKey.length; i++) {
+                byte b = bytes[offset + i];
+                if (b >= 'A' && b <= 'Z')
+                    b += 'a' - 'A';
+                if (b != lowerCaseKey[i])
+                    return false;
+            }
+            return true;
+        }
 
-                    }
-                }
-                if (bufferedReader != null) {
-                    try {
-                        bufferedReader.close();
-                    } catch (Exception ignored) {
+        private static boolean isCharsetNameByte(byte b) {
+            return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '-' || b == '_';
+        }
 
-                    }
-                }
-            }
-            return headTagContents.toString();
+        private static boolean hasUtf8ByteOrderMark(@NonNull byte[] bytes, int length) {
+            return length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF;
         }
 
         /**
-         * This method detects the charset even if the first call only returns some
-         * bytes. It will read until 4K bytes are reached and then try to determine
-         * the encoding
+         * Reads into {@code buffer} until it is full or {@code is} ends.
          *
-         * @throws IOException
+         * @return Number of bytes read.
          */
-        @Nullable
-        String detectCharset(String key, ByteArrayOutputStream bos, BufferedInputStream in,
-                             String enc) throws IOException {
-            // Grab better encoding from stream
-            byte[] arr = new byte[K2];
-            int nSum = 0;
-            while (nSum < K2) {
-                int n = in.read(arr);
+        private static int readFully(@NonNull InputStream is, @NonNull byte[] buffer) throws IOException {
+            int read = 0;
+            while (read < buffer.length) {
+                final int n = is.read(buffer, read, buffer.length - read);
                 if (n < 0)
                     break;
-
-                nSum += n;
-                bos.write(arr, 0, n);
+                read += n;
             }
-
-            String str = bos.toString(enc);
-            int encIndex = str.indexOf(key);
-            int clength = key.length();
-            if (encIndex > 0) {
-                char startChar = str.charAt(encIndex + clength);
-                int lastEncIndex;
-                if (startChar == '\'')
-                    // if we have charset='something'
-                    lastEncIndex = str.indexOf("'", ++encIndex + clength);
-                else if (startChar == '\"')
-                    // if we have charset="something"
-                    lastEncIndex = str.indexOf("\"", ++encIndex + clength);
-                else {
-                    // if we have "text/html; charset=utf-8"
-                    int first = str.indexOf("\"", encIndex + clength);
-                    if (first < 0)
-                        first = Integer.MAX_VALUE;
-
-                    // or "text/html; charset=utf-8 "
-                    int sec = str.indexOf(" ", encIndex + clength);
-                    if (sec < 0)
-                        sec = Integer.MAX_VALUE;
-                    lastEncIndex = Math.min(first, sec);
-
-                    // or "text/html; charset=utf-8 '
-                    int third = str.indexOf("'", encIndex + clength);
-                    if (third > 0)
-                        lastEncIndex = Math.min(lastEncIndex, third);
-                }
-
-                // re-read byte array with different encoding
-                // assume that the encoding string cannot be greater than 40 chars
-                if (lastEncIndex > encIndex + clength && lastEncIndex < encIndex + clength + 40) {
-                    String tmpEnc = encodingCleanup(str.substring(encIndex + clength, lastEncIndex));
-                    try {
-                        in.reset();
-                        bos.reset();
-                        return tmpEnc;
-                    } catch (IOException ex) {
-                        Timber.w(enc, "Couldn't reset stream to re-read with new encoding");
-                    }
-                }
-            }
-            return null;
+            return read;
         }
 
         @NonNull
@@ -480,5 +500,44 @@ class WebsiteUtilities {
             }
             return sb.toString().trim();
         }
+
+        /**
+         * Ends after a given number of bytes of the wrapped stream.
+         */
+        private static final class LimitedInputStream extends FilterInputStream {
+            private int remaining;
+
+            LimitedInputStream(@NonNull InputStream in, int limit) {
+                super(in);
+                remaining = Math.max(0, limit);
+            }
+
+            /**
+             * True if reading stopped at the limit rather than at the end of the wrapped stream.
+             */
+            boolean isExhausted() throws IOException {
+                return remaining == 0 && in.read() >= 0;
+            }
+
+            @Override
+            public int read() throws IOException {
+                if (remaining == 0)
+                    return -1;
+                final int b = in.read();
+                if (b >= 0)
+                    remaining--;
+                return b;
+            }
+
+            @Override
+            public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+                if (remaining == 0)
+                    return -1;
+                final int n = in.read(buffer, offset, Math.min(length, remaining));
+                if (n > 0)
+                    remaining -= n;
+                return n;
+            }
+        }
     }
 }
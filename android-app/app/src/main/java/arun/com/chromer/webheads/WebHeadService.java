@@ -70,6 +70,7 @@ import arun.com.chromer.shared.Constants;
 import arun.com.chromer.tabs.DefaultTabsManager;
 import arun.com.chromer.util.SchedulerProvider;
 import arun.com.chromer.util.Utils;
+import arun.com.chromer.util.parser.ExtractionScheduler.Priority;
 import arun.com.chromer.webheads.physics.SpringChain2D;
 import arun.com.chromer.webheads.ui.WebHeadContract;
 import arun.com.chromer.webheads.ui.context.WebHeadContextActivity;
@@ -281,9 +282,9 @@ public class WebHeadService extends OverlayService implements WebHeadContract,
     private void doExtraction(final String webHeadUrl, boolean isIncognito) {
         final Observable<Website> websiteObservable;
         if (!isIncognito) {
-            websiteObservable = websiteRepository.getWebsite(webHeadUrl);
+            websiteObservable = websiteRepository.getWebsite(webHeadUrl, Priority.WEB_HEAD);
         } else {
-            websiteObservable = websiteRepository.getIncognitoWebsite(webHeadUrl);
+            websiteObservable = websiteRepository.getIncognitoWebsite(webHeadUrl, Priority.WEB_HEAD);
         }
         //noinspection Convert2MethodRef
         subs.add(websiteObservable
@@ -0,0 +1,66 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.appdetect
+
+import arun.com.chromer.ChromerRobolectricSuite
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+class AppDetectionManagerTest : ChromerRobolectricSuite() {
+
+    private lateinit var appDetectionManager: AppDetectionManager
+
+    @Before
+    fun setUp() {
+        appDetectionManager = AppDetectionManager(application)
+    }
+
+    @Test
+    fun resolvesTheAppInForegroundAtTheGivenTime() {
+        appDetectionManager.logPackage("com.chat", 1_000)
+        appDetectionManager.logPackage("com.mail", 5_000)
+        appDetectionManager.logPackage(application.packageName, 6_000)
+
+        assertEquals("com.chat", appDetectionManager.getNonFilteredPackageAt(4_000))
+        assertEquals("com.mail", appDetectionManager.getNonFilteredPackageAt(7_000))
+        assertEquals("com.mail", appDetectionManager.getFilteredPackageAt(7_000))
+        assertEquals("", appDetectionManager.getNonFilteredPackageAt(500))
+    }
+
+    @Test
+    fun forgetsTransitionsThatDroppedOutOfTheHistory() {
+        appDetectionManager.logPackage("com.chat", 1_000)
+        for (i in 1..AppDetectionManager.HISTORY_SIZE) {
+            appDetectionManager.logPackage("com.app$i", 1_000L + i)
+        }
+
+        assertEquals("", appDetectionManager.getNonFilteredPackageAt(1_000))
+        assertEquals("com.app${AppDetectionManager.HISTORY_SIZE}", appDetectionManager.getNonFilteredPackage())
+    }
+
+    @Test
+    fun clearForgetsEarlierTransitions() {
+        appDetectionManager.logPackage("com.chat", 1_000)
+        appDetectionManager.clear()
+
+        assertEquals("", appDetectionManager.getNonFilteredPackageAt(2_000))
+    }
+}
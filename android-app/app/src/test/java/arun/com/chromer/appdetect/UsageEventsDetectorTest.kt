@@ -0,0 +1,84 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.appdetect
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class UsageEventsDetectorTest {
+
+    /**
+     * Usage events source backed by a list of (package, time stamp) foreground events.
+     */
+    private class FakeEventSource : UsageEventsDetector.EventSource {
+        val events = mutableListOf<Pair<String, Long>>()
+        val reads = mutableListOf<LongRange>()
+
+        override fun read(beginTime: Long, endTime: Long, sink: UsageEventsDetector.EventSink) {
+            reads.add(beginTime until endTime)
+            events.filter { it.second in beginTime until endTime }
+                    .forEach { sink.onForeground(it.first, it.second) }
+        }
+    }
+
+    private val source = FakeEventSource()
+    private val detector = UsageEventsDetector(source)
+    private val seen = mutableListOf<String>()
+
+    private fun poll(now: Long) = detector.poll(now) { packageName, _ -> seen.add(packageName) }
+
+    @Test
+    fun readsOnlyEventsAfterTheLastOneSeen() {
+        source.events.addAll(listOf("launcher" to 1_000L, "chat" to 5_000L))
+
+        assertTrue(poll(10_000))
+        assertEquals(listOf("launcher", "chat"), seen)
+
+        source.events.add("mail" to 12_000L)
+        assertTrue(poll(20_000))
+        assertEquals(listOf("launcher", "chat", "mail"), seen)
+        assertEquals(5_001L, source.reads[1].first)
+
+        assertFalse(poll(30_000))
+        assertEquals(12_001L, source.reads[2].first)
+        assertEquals(3, detector.stats.eventsRead.get())
+        assertEquals(3, detector.stats.polls.get())
+        assertEquals(2, detector.stats.changes.get())
+    }
+
+    @Test
+    fun firstPollLooksBackForTheCurrentApp() {
+        val now = UsageEventsDetector.INITIAL_LOOKBACK_MS * 2
+        poll(now)
+
+        assertEquals(now - UsageEventsDetector.INITIAL_LOOKBACK_MS, source.reads[0].first)
+    }
+
+    @Test
+    fun backsOffWhileNothingChanges() {
+        val delays = (1..10).map { detector.nextPollDelayMs(false) }
+
+        assertEquals(UsageEventsDetector.MIN_POLL_INTERVAL_MS * 2, delays.first())
+        assertEquals(UsageEventsDetector.MAX_POLL_INTERVAL_MS, delays.last())
+        assertEquals(UsageEventsDetector.MIN_POLL_INTERVAL_MS, detector.nextPollDelayMs(true))
+    }
+}
@@ -20,12 +20,16 @@
 package arun.com.chromer.data.apps
 
 import arun.com.chromer.ChromerRobolectricSuite
+import arun.com.chromer.data.apps.store.AppDiskStore
 import arun.com.chromer.data.common.App
+import arun.com.chromer.shared.Constants
+import org.junit.Assert.assertEquals
 import org.junit.After
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
+import rx.Observable
 import javax.inject.Inject
 
 /**
@@ -36,6 +40,14 @@ class DefaultAppRepositoryTest : ChromerRobolectricSuite() {
     @JvmField
     var appRepository: AppRepository? = null
 
+    @Inject
+    @JvmField
+    var appDiskStore: AppDiskStore? = null
+
+    @Inject
+    @JvmField
+    var systemStore: MockAppSystemStore? = null
+
     private val packageName = "PackageName"
 
     @Before
@@ -46,6 +58,8 @@ class DefaultAppRepositoryTest : ChromerRobolectricSuite() {
     @After
     fun tearDown() {
         appRepository = null
+        appDiskStore = null
+        systemStore = null
     }
 
     @Test
@@ -58,6 +72,27 @@ class DefaultAppRepositoryTest : ChromerRobolectricSuite() {
                 .assertReceivedOnNext(listOf(listOf(App("App", "Package", false, false, 0))))
     }
 
+    @Test
+    fun allAppsKeepsSettingsChangedWhileLoading() {
+        val apps = (1..30).map { App("App $it", "Package$it", false, false, 0) }
+        systemStore!!.installedApps = Observable.from(apps).doOnNext { app ->
+            // Toggled after the first page was shown.
+            if (app.packageName == "Package25") {
+                appRepository!!.setPackageBlacklisted("Package3").subscribe()
+            }
+        }
+
+        val testSubscriber = appRepository!!.allApps().test()
+
+        testSubscriber.awaitTerminalEvent()
+                .assertNoErrors()
+                .assertCompleted()
+        val lists = testSubscriber.onNextEvents
+        assertEquals(listOf(24, 30), lists.map { it.size })
+        assertFalse(lists.first().first { it.packageName == "Package3" }.blackListed)
+        assertTrue(lists.last().first { it.packageName == "Package3" }.blackListed)
+    }
+
     @Test
     fun testBlacklistSet() {
         appRepository!!.setPackageBlacklisted(packageName).subscribe()
@@ -71,4 +106,21 @@ class DefaultAppRepositoryTest : ChromerRobolectricSuite() {
         assertTrue(appRepository!!.isPackageIncognito(packageName))
         assertFalse(appRepository!!.isPackageBlacklisted(packageName))
     }
-}
\ No newline at end of file
+
+    @Test
+    fun linkOpenLookupsDoNotReadDisk() {
+        appRepository!!.setPackageBlacklisted(packageName).subscribe()
+        appRepository!!.setPackageIncognito("IncognitoPackage").subscribe()
+        appRepository!!.setPackageColor("ColoredPackage", 0xFF0000).subscribe()
+
+        // Anything read from disk from now on would be missing.
+        appDiskStore!!.book.destroy()
+
+        assertTrue(appRepository!!.isPackageBlacklisted(packageName))
+        assertFalse(appRepository!!.isPackageIncognito(packageName))
+        assertTrue(appRepository!!.isPackageIncognito("IncognitoPackage"))
+        assertFalse(appRepository!!.isPackageBlacklisted("OtherPackage"))
+        assertEquals(0xFF0000, appRepository!!.getPackageColorSync("ColoredPackage"))
+        assertEquals(Constants.NO_COLOR, appDiskStore!!.getPackageColorSync("OtherPackage"))
+    }
+}
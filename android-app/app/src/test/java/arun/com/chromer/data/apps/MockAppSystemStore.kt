@@ -19,6 +19,7 @@
 
 package arun.com.chromer.data.apps
 
+import arun.com.chromer.data.apps.model.AppPolicy
 import arun.com.chromer.data.apps.model.Provider
 import arun.com.chromer.data.apps.store.AppStore
 import arun.com.chromer.data.common.App
@@ -31,6 +32,8 @@ import javax.inject.Singleton
  */
 @Singleton
 class MockAppSystemStore @Inject constructor() : AppStore {
+    var installedApps: Observable<App> = Observable.just(App("App", "Package", true, true, 0))
+
     override fun allProviders(): Observable<List<Provider>> {
         TODO("not implemented") //To change body of created functions use File | Settings | File Templates.
     }
@@ -79,8 +82,9 @@ class MockAppSystemStore @Inject constructor() : AppStore {
         TODO("not implemented") //To change body of created functions use File | Settings | File Templates.
     }
 
-    override fun getInstalledApps(): Observable<App> {
-        val app = App("App", "Package", true, true, 0)
-        return Observable.just(app)
+    override fun getInstalledApps(): Observable<App> = installedApps
+
+    override fun getAppPolicies(): Observable<Map<String, AppPolicy>> {
+        TODO("not implemented") //To change body of created functions use File | Settings | File Templates.
     }
-}
\ No newline at end of file
+}
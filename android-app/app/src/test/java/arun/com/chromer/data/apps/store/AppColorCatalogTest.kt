@@ -0,0 +1,54 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.apps.store
+
+import arun.com.chromer.data.apps.store.AppColorCatalog.Companion.readCatalog
+import arun.com.chromer.data.apps.store.AppColorCatalog.Companion.writeCatalog
+import arun.com.chromer.data.apps.store.AppColorCatalog.Entry
+import arun.com.chromer.shared.Constants
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class AppColorCatalogTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    @Test
+    fun catalogSurvivesARoundTrip() {
+        val file = File(folder.root, "catalog")
+        val entries = mapOf(
+                "com.chat" to Entry(1_000L, 0xFF2196F3.toInt()),
+                "com.mail" to Entry(2_000L, Constants.NO_COLOR)
+        )
+
+        writeCatalog(file, entries)
+
+        assertEquals(entries, readCatalog(file))
+    }
+
+    @Test
+    fun missingCatalogIsEmpty() {
+        assertTrue(readCatalog(File(folder.root, "missing")).isEmpty())
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.history
+
+import android.database.sqlite.SQLiteException
+import arun.com.chromer.ChromerRobolectricSuite
+import arun.com.chromer.data.history.model.HistoryVisit
+import arun.com.chromer.data.website.model.Website
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+
+class BatchedHistoryWriterTest : ChromerRobolectricSuite() {
+
+    private lateinit var diskStore: HistorySqlDiskStore
+    private lateinit var historyStore: CrashingHistoryStore
+    private lateinit var historyWriter: BatchedHistoryWriter
+
+    private val url = "https://www.example.com"
+
+    @Before
+    fun setUp() {
+        diskStore = HistorySqlDiskStore(application)
+        historyStore = CrashingHistoryStore(diskStore)
+        historyWriter = BatchedHistoryWriter(application, historyStore)
+    }
+
+    @After
+    fun tearDown() {
+        diskStore.deleteAll().toBlocking().first()
+        diskStore.close()
+    }
+
+    @Test
+    fun visitsAreCoalescedPerUrl() {
+        repeat(3) { historyWriter.record(Website(url)) }
+        historyWriter.record(Website("https://www.example.org"))
+
+        assertEquals(2, historyWriter.flush())
+        assertEquals(3, diskStore[Website(url)].toBlocking().first().count)
+        assertEquals(1, historyWriter.stats.flushes.get())
+        assertEquals(2, historyWriter.stats.lastBatchSize.get())
+    }
+
+    @Test
+    fun noVisitIsLostWhenFlushFails() {
+        historyWriter.record(Website(url))
+        historyStore.crashOnNextInsert = true
+
+        assertEquals(0, historyWriter.flush())
+        assertEquals(1, historyWriter.stats.failedFlushes.get())
+        assertNull(diskStore[Website(url)].toBlocking().first())
+        assertNotNull(historyWriter.pending(url))
+
+        historyWriter.record(Website(url))
+        assertEquals(1, historyWriter.flush())
+        assertEquals(2, diskStore[Website(url)].toBlocking().first().count)
+        assertNull(historyWriter.pending(url))
+    }
+
+    @Test
+    fun visitsDiscardedWhileWrittenDoNotComeBack() {
+        historyWriter.record(Website(url))
+        historyStore.onNextInsert = { historyWriter.discard(url) }
+        historyStore.crashOnNextInsert = true
+
+        assertEquals(0, historyWriter.flush())
+        assertNull(historyWriter.pending(url))
+
+        historyWriter.record(Website("https://www.example.org"))
+        historyStore.onNextInsert = { historyWriter.discardAll() }
+        historyWriter.flush()
+        assertNull(diskStore[Website("https://www.example.org")].toBlocking().first())
+    }
+
+    class CrashingHistoryStore(private val historyStore: HistoryStore) : HistoryStore by historyStore {
+        var crashOnNextInsert = false
+        var onNextInsert: (() -> Unit)? = null
+
+        override fun insertVisits(visits: Collection<HistoryVisit>): Int {
+            onNextInsert?.invoke()
+            onNextInsert = null
+            if (crashOnNextInsert) {
+                crashOnNextInsert = false
+                throw SQLiteException("disk I/O error")
+            }
+            return historyStore.insertVisits(visits)
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.history
+
+import arun.com.chromer.ChromerRobolectricSuite
+import arun.com.chromer.data.history.model.HistoryTable.*
+import arun.com.chromer.data.website.model.Website
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+
+class HistorySqlDiskStoreTest : ChromerRobolectricSuite() {
+
+    private lateinit var historyStore: HistorySqlDiskStore
+
+    private val url = "https://www.example.com"
+
+    @Before
+    fun setUp() {
+        historyStore = HistorySqlDiskStore(application)
+    }
+
+    @After
+    fun tearDown() {
+        historyStore.deleteAll().toBlocking().first()
+        historyStore.close()
+    }
+
+    @Test
+    fun insertIncrementsVisitedInPlace() {
+        repeat(3) {
+            historyStore.insert(Website(url)).toBlocking().first()
+        }
+        historyStore.insert(Website("https://www.example.org")).toBlocking().first()
+
+        val saved = historyStore[Website(url)].toBlocking().first()
+        assertEquals(3, saved.count)
+        assertEquals(2, historyStore.readableDatabase.rawQuery("SELECT * FROM $TABLE_NAME", null).use { it.count })
+    }
+
+    @Test
+    fun fetchTimeIsKeptSoHistoryHitsAreNotAlwaysStale() {
+        historyStore.insert(Website(url).apply { fetchedAt = 1_000 }).toBlocking().first()
+        assertEquals(1_000, historyStore[Website(url)].toBlocking().first().fetchedAt)
+
+        historyStore.updateMetadata(Website(url).apply { fetchedAt = 2_000 }).toBlocking().first()
+        assertEquals(2_000, historyStore[Website(url)].toBlocking().first().fetchedAt)
+    }
+
+    @Test
+    fun insertLookupUsesUrlIndex() {
+        historyStore.insert(Website(url)).toBlocking().first()
+
+        val plan = historyStore.readableDatabase
+                .rawQuery("EXPLAIN QUERY PLAN $INCREMENT_VISITED", arrayOf("1", "0", url))
+                .use { cursor ->
+                    val details = StringBuilder()
+                    while (cursor.moveToNext()) {
+                        details.append(cursor.getString(cursor.getColumnIndex("detail")))
+                    }
+                    details.toString()
+                }
+        assertTrue(plan, plan.contains(INDEX_URL))
+    }
+
+    @Test
+    fun searchMatchesPrefixesAndRanksByVisits() {
+        historyStore.insert(Website("https://news.example.com/today").apply { title = "Today's news" }).toBlocking().first()
+        repeat(2) {
+            historyStore.insert(Website("https://www.example.org").apply { title = "Example" }).toBlocking().first()
+        }
+        historyStore.insert(Website("https://www.other.com").apply { title = "Other" }).toBlocking().first()
+
+        val results = historyStore.search("exam").toBlocking().first()
+        assertEquals(listOf("https://www.example.org", "https://news.example.com/today"), results.map { it.url })
+        assertEquals(1, historyStore.search("today's \"ne").toBlocking().first().size)
+        assertTrue(historyStore.search("' OR 1=1 --").toBlocking().first().isEmpty())
+    }
+
+    @Test
+    fun searchIndexFollowsDeletes() {
+        historyStore.insert(Website(url).apply { title = "Example" }).toBlocking().first()
+        historyStore.delete(Website(url)).toBlocking().first()
+
+        assertTrue(historyStore.search("example").toBlocking().first().isEmpty())
+    }
+
+    @Test
+    fun historyPagesSeekPastPreviousPage() {
+        val urls = (1..5).map { "https://www.example$it.com" }
+        urls.forEach { historyStore.insert(Website(it)).toBlocking().first() }
+
+        val loaded = ArrayList<String>()
+        var page = historyStore.loadHistoryPage(2, null)
+        loaded += page.websites.map { it.url }
+        while (page.nextKey != null) {
+            page = historyStore.loadHistoryPage(2, page.nextKey)
+            loaded += page.websites.map { it.url }
+        }
+        assertEquals(urls.reversed(), loaded)
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.website
+
+import arun.com.chromer.ChromerRobolectricSuite
+import arun.com.chromer.data.history.HistoryRepository
+import arun.com.chromer.data.website.model.Website
+import arun.com.chromer.data.website.stores.WebsiteStore
+import arun.com.chromer.util.parser.ExtractionScheduler
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.mockito.Matchers.any
+import org.mockito.Matchers.anyString
+import org.mockito.Mockito.`when`
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import rx.Observable
+import rx.android.plugins.RxAndroidPlugins
+import rx.android.plugins.RxAndroidSchedulersHook
+import rx.observers.TestSubscriber
+import rx.schedulers.Schedulers
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.inject.Inject
+
+class DefaultWebsiteRepositoryTest : ChromerRobolectricSuite() {
+    @Inject
+    lateinit var historyRepository: HistoryRepository
+
+    private lateinit var cacheStore: WebsiteStore
+    private lateinit var networkStore: WebsiteStore
+    private lateinit var websiteRepository: DefaultWebsiteRepository
+
+    private val networkHits = AtomicInteger()
+    private val releaseNetwork = CountDownLatch(1)
+
+    @Before
+    fun setUp() {
+        testAppComponent.inject(this)
+        RxAndroidPlugins.getInstance().registerSchedulersHook(object : RxAndroidSchedulersHook() {
+            override fun getMainThreadScheduler() = Schedulers.immediate()
+        })
+
+        cacheStore = mock(WebsiteStore::class.java)
+        `when`(cacheStore.getWebsite(anyString())).thenReturn(Observable.empty())
+        `when`(cacheStore.saveWebsite(any(Website::class.java))).thenReturn(Observable.empty())
+
+        networkStore = mock(WebsiteStore::class.java)
+        `when`(networkStore.getWebsite(anyString())).thenAnswer { invocation ->
+            val url = invocation.arguments[0] as String
+            Observable.fromCallable {
+                networkHits.incrementAndGet()
+                releaseNetwork.await(5, TimeUnit.SECONDS)
+                Website(url)
+            }.subscribeOn(Schedulers.io())
+        }
+        `when`(networkStore.revalidateWebsite(any(Website::class.java))).thenReturn(Observable.empty())
+
+        websiteRepository = DefaultWebsiteRepository(application, cacheStore, networkStore, historyRepository, ExtractionScheduler(4))
+    }
+
+    @After
+    fun tearDown() {
+        releaseNetwork.countDown()
+        RxAndroidPlugins.getInstance().reset()
+        historyRepository.deleteAll().toBlocking().first()
+    }
+
+    @Test
+    fun parallelRequestsShareOneFetch() {
+        val url = "https://www.example.com/article"
+        val requests = 8
+        val subscribers = (1..requests).map { i ->
+            val requestUrl = if (i % 2 == 0) url else url.replace("www.example", "WWW.Example")
+            val subscriber = TestSubscriber<Website>()
+            val website = if (i % 3 == 0) {
+                websiteRepository.getIncognitoWebsite(requestUrl)
+            } else {
+                websiteRepository.getWebsite(requestUrl)
+            }
+            website.subscribe(subscriber)
+            subscriber
+        }
+
+        // Wait for every request to reach the network step before letting the fetch finish.
+        val stats = websiteRepository.fetchStats
+        val deadline = System.currentTimeMillis() + 5000
+        while (stats.started.get() + stats.joined.get() < requests && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        releaseNetwork.countDown()
+
+        subscribers.forEach { subscriber ->
+            subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS)
+            subscriber.assertNoErrors()
+            assertEquals(1, subscriber.onNextEvents.size)
+        }
+        assertEquals(1, networkHits.get())
+        assertEquals(1, stats.started.get())
+        assertEquals((requests - 1).toLong(), stats.joined.get())
+        verify(cacheStore, times(1)).saveWebsite(any(Website::class.java))
+    }
+
+    @Test
+    fun sequentialRequestsFetchAgain() {
+        releaseNetwork.countDown()
+        val url = "https://www.example.com"
+
+        websiteRepository.getIncognitoWebsite(url).toBlocking().first()
+        websiteRepository.getIncognitoWebsite(url).toBlocking().first()
+
+        assertEquals(2, networkHits.get())
+        assertEquals(0, websiteRepository.fetchStats.joined.get())
+    }
+
+    @Test
+    fun cacheHitIsPreferredOverFasterHistoryHit() {
+        val url = "https://www.example.com"
+        historyRepository.insert(Website("History", url, null, null, null, null, false, 0, 1))
+                .toBlocking().first()
+        `when`(cacheStore.getWebsite(anyString())).thenReturn(Observable.fromCallable {
+            Thread.sleep(100)
+            Website("Cache", url, null, null, null, null, false, 0, 1)
+        })
+
+        val website = websiteRepository.getIncognitoWebsite(url).toBlocking().first()
+
+        assertEquals("Cache", website.title)
+    }
+
+    @Test
+    fun networkFetchStartsWhileLocalLookupIsSlow() {
+        val url = "https://www.example.com"
+        val releaseCache = CountDownLatch(1)
+        `when`(cacheStore.getWebsite(anyString())).thenReturn(Observable.fromCallable<Website?> {
+            releaseCache.await(5, TimeUnit.SECONDS)
+            null
+        })
+        websiteRepository.setSpeculativeFetchDelay(10, TimeUnit.MILLISECONDS)
+        releaseNetwork.countDown()
+
+        val subscriber = TestSubscriber<Website>()
+        websiteRepository.getIncognitoWebsite(url).subscribe(subscriber)
+
+        val deadline = System.currentTimeMillis() + 5000
+        while (networkHits.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+        assertEquals(1, networkHits.get())
+        // The network result must wait for the local lookups to miss.
+        assertEquals(0, subscriber.onNextEvents.size)
+
+        releaseCache.countDown()
+        subscriber.awaitTerminalEvent(5, TimeUnit.SECONDS)
+        subscriber.assertNoErrors()
+        assertEquals(url, subscriber.onNextEvents.single().url)
+    }
+
+    @Test
+    fun staleCacheHitIsServedThenRefreshed() {
+        val url = "https://www.example.com"
+        val stale = Website("Old", url, null, null, null, null, false, 0, 1).apply {
+            etag = "\"v1\""
+            fetchedAt = 1
+        }
+        val fresh = Website("New", url, null, null, null, null, false, 0, 1).apply {
+            etag = "\"v2\""
+            fetchedAt = System.currentTimeMillis()
+        }
+        `when`(cacheStore.getWebsite(anyString())).thenReturn(Observable.just(stale))
+        `when`(networkStore.revalidateWebsite(stale)).thenReturn(Observable.just(fresh))
+
+        val websites = websiteRepository.getWebsite(url).toList().toBlocking().first()
+
+        assertEquals(listOf("Old", "New"), websites.map { it.title })
+        verify(cacheStore, times(1)).saveWebsite(fresh)
+    }
+
+    @Test
+    fun freshCacheHitIsNotRevalidated() {
+        val url = "https://www.example.com"
+        val cached = Website("Cached", url, null, null, null, null, false, 0, 1).apply {
+            fetchedAt = System.currentTimeMillis()
+        }
+        `when`(cacheStore.getWebsite(anyString())).thenReturn(Observable.just(cached))
+
+        val websites = websiteRepository.getWebsite(url).toList().toBlocking().first()
+
+        assertEquals(listOf(cached), websites)
+        verify(networkStore, times(0)).revalidateWebsite(any(Website::class.java))
+    }
+
+    @Test
+    fun fetchKeyIgnoresCaseOfSchemeAndHost() {
+        assertEquals("https://www.example.com/Path?Q=1",
+                DefaultWebsiteRepository.fetchKey(" HTTPS://WWW.Example.com/Path?Q=1 "))
+        assertEquals("https://www.example.com#Top",
+                DefaultWebsiteRepository.fetchKey("https://www.EXAMPLE.com#Top"))
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.data.website.stores
+
+import android.graphics.Bitmap
+import arun.com.chromer.ChromerRobolectricSuite
+import arun.com.chromer.data.website.model.Website
+import arun.com.chromer.data.website.stores.WebsiteIconCache.IconColor
+import `in`.arunkumarsampath.diskcache.ParcelDiskCache
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class WebsiteIconCacheTest : ChromerRobolectricSuite() {
+    private lateinit var colorCache: ParcelDiskCache<IconColor>
+
+    private val decodes = AtomicInteger()
+    private val draws = AtomicInteger()
+    private var faviconSize = 64
+
+    @Before
+    fun setUp() {
+        colorCache = ParcelDiskCache.open(application, IconColor::class.java.classLoader, "WebsiteIconCacheTest", 64L * 1024)
+        colorCache.clear()
+    }
+
+    private fun iconCache() = WebsiteIconCache(
+            colorCache,
+            { decodes.incrementAndGet(); Bitmap.createBitmap(faviconSize, faviconSize, Bitmap.Config.ARGB_8888) },
+            { draws.incrementAndGet(); Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888) }
+    )
+
+    private fun website(url: String, faviconUrl: String?) = Website(url).apply { this.faviconUrl = faviconUrl }
+
+    @Test
+    fun pagesOfAHostShareOneDecode() {
+        val iconCache = iconCache()
+
+        val first = iconCache.get(website("https://example.com/a", "https://example.com/favicon.ico"))
+        val second = iconCache.get(website("https://example.com/b", "https://example.com/favicon.ico"))
+        val placeholder = iconCache.getOrPlaceholder(website("https://example.com/c", "https://example.com/favicon.ico"))
+
+        assertSame(first, second)
+        assertSame(first, placeholder)
+        assertEquals(1, decodes.get())
+        assertEquals(2L, iconCache.stats.memoryHits.get())
+    }
+
+    @Test
+    fun changedFaviconUrlIsDecodedAgain() {
+        val iconCache = iconCache()
+
+        iconCache.get(website("https://example.com/a", "https://example.com/favicon.ico"))
+        val changed = iconCache.get(website("https://example.com/a", "https://example.com/icon.png"))
+
+        assertEquals("https://example.com/icon.png", changed.faviconUrl)
+        assertEquals(2, decodes.get())
+    }
+
+    @Test
+    fun knownColorIsReadFromDisk() {
+        val color = iconCache().get(website("https://example.com", "https://example.com/favicon.ico")).color
+
+        // A new instance stands in for a restart, only the disk cache is kept.
+        val restarted = iconCache()
+        val icon = restarted.get(website("https://example.com", "https://example.com/favicon.ico"))
+
+        assertEquals(color, icon.color)
+        assertEquals(2, decodes.get())
+        assertEquals(1L, restarted.stats.diskHits.get())
+    }
+
+    @Test
+    fun placeholderIsDrawnOncePerHost() {
+        faviconSize = 16
+        val iconCache = iconCache()
+
+        val first = iconCache.getOrPlaceholder(website("https://example.com/a", "https://example.com/favicon.ico"))
+        val second = iconCache.getOrPlaceholder(website("https://example.com/b", "https://example.com/favicon.ico")
+                .apply { title = "Another page" })
+        val noFavicon = iconCache.getOrPlaceholder(website("https://other.com", null))
+        iconCache.getOrPlaceholder(website("https://other.com", null))
+
+        assertSame(first, second)
+        assertEquals(96, noFavicon.bitmap?.width)
+        assertEquals(1, decodes.get())
+        assertEquals(2, draws.get())
+        assertEquals(2L, iconCache.stats.placeholders.get())
+    }
+}
@@ -25,6 +25,7 @@ import javax.inject.Singleton;
 
 import arun.com.chromer.ChromerRobolectricSuite;
 import arun.com.chromer.data.apps.DefaultAppRepositoryTest;
+import arun.com.chromer.data.website.DefaultWebsiteRepositoryTest;
 import arun.com.chromer.di.data.TestDataModule;
 import arun.com.chromer.tabs.DefaultTabsManagerTest;
 import dagger.Component;
@@ -41,4 +42,6 @@ public interface TestAppComponent extends AppComponent {
     void inject(@NotNull DefaultTabsManagerTest defaultTabsManagerTest);
 
     void inject(@NotNull DefaultAppRepositoryTest defaultAppRepositoryTest);
+
+    void inject(@NotNull DefaultWebsiteRepositoryTest defaultWebsiteRepositoryTest);
 }
\ No newline at end of file
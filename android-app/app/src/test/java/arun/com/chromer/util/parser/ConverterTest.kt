@@ -0,0 +1,92 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import arun.com.chromer.util.parser.WebsiteUtilities.Converter
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.io.IOException
+import java.io.InputStream
+import java.io.SequenceInputStream
+import java.lang.management.ManagementFactory
+
+class ConverterTest {
+
+    private fun sniff(html: String) = html.toByteArray(Charsets.ISO_8859_1).let { Converter.sniffCharset(it, it.size) }
+
+    @Test
+    fun sniffsDeclaredCharset() {
+        assertEquals("utf-8", sniff("<html><head><meta CHARSET=\"utf-8\">"))
+        assertEquals("windows-1252", sniff("<meta http-equiv='Content-Type' content='text/html; charset=windows-1252'>"))
+        assertEquals("ISO-8859-15", sniff("<?xml version='1.0' encoding='ISO-8859-15'?>"))
+        assertEquals("UTF-8", sniff("\u00EF\u00BB\u00BF<html><meta charset=latin1>"))
+        assertNull(sniff("<html><head><title>No charset</title>"))
+    }
+
+    @Test(expected = IOException::class)
+    fun readFailureIsNotAnEmptyPage() {
+        val reset = object : InputStream() {
+            override fun read(): Int = throw IOException("Connection reset")
+        }
+        Converter().readString(SequenceInputStream("<html><head>".byteInputStream(), reset), "utf-8", -1)
+    }
+
+    @Test
+    fun decodesWithDeclaredCharset() {
+        val html = "<html><head><meta charset=\"windows-1252\"><title>Café</title></head><body>${"x".repeat(10000)}é</body></html>"
+        val converter = Converter("url")
+
+        val result = converter.readString(html.toByteArray(charset("windows-1252")).inputStream(), "utf-8", -1)
+
+        assertEquals(html, result)
+        assertEquals("windows-1252", converter.encoding)
+    }
+
+    @Test
+    fun stopsAtMaxBytes() {
+        assertEquals("abc", Converter().readString("abcdef".byteInputStream(), 3, null, -1))
+    }
+
+    @Test
+    fun decodesLargePageWithoutIntermediateCopies() {
+        val threads = ManagementFactory.getThreadMXBean()
+        assumeTrue(threads is com.sun.management.ThreadMXBean)
+        threads as com.sun.management.ThreadMXBean
+        val page = buildString {
+            append("<html><head><meta charset=\"utf-8\"></head><body>")
+            while (length < 450_000) {
+                append("<p>Lorem ipsum dolor sit amet</p>\n")
+            }
+        }.toByteArray()
+        val threadId = Thread.currentThread().id
+        repeat(5) { Converter().readString(page.inputStream(), "utf-8", page.size) }
+
+        val before = threads.getThreadAllocatedBytes(threadId)
+        val result = Converter().readString(page.inputStream(), "utf-8", page.size)
+        val allocated = threads.getThreadAllocatedBytes(threadId) - before
+
+        assertEquals(page.size, result.length)
+        // The builder and the result, two bytes per char at most, and fixed size buffers.
+        assertTrue("$allocated bytes allocated for ${page.size} bytes", allocated < 4L * page.size + 128 * 1024)
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import arun.com.chromer.util.parser.ExtractionScheduler.Priority
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import rx.Observable
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class ExtractionSchedulerTest {
+
+    private val scheduler = ExtractionScheduler(1)
+    private val started = Collections.synchronizedList(ArrayList<String>())
+
+    private fun extraction(name: String, release: CountDownLatch = CountDownLatch(0)): Observable<String> =
+            Observable.fromCallable {
+                started.add(name)
+                release.await()
+                name
+            }
+
+    @Test
+    fun waitingExtractionsStartInPriorityOrder() {
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(3)
+        scheduler.schedule(Priority.FOREGROUND, extraction("first", release)).subscribe { done.countDown() }
+        scheduler.schedule(Priority.PREFETCH, extraction("prefetch")).subscribe { done.countDown() }
+        scheduler.schedule(Priority.WEB_HEAD, extraction("web head")).subscribe { done.countDown() }
+
+        assertEquals(1, scheduler.queueDepth(Priority.PREFETCH))
+        assertEquals(1, scheduler.queueDepth(Priority.WEB_HEAD))
+
+        release.countDown()
+        done.await(5, TimeUnit.SECONDS)
+
+        assertEquals(listOf("first", "web head", "prefetch"), started)
+    }
+
+    @Test
+    fun promotedExtractionStartsBeforeOthersInItsOldLane() {
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(3)
+        scheduler.schedule(Priority.FOREGROUND, extraction("first", release)).subscribe { done.countDown() }
+        scheduler.schedule(Priority.WEB_HEAD, extraction("web head"), "web head").subscribe { done.countDown() }
+        scheduler.schedule(Priority.WEB_HEAD, extraction("opened tab"), "opened tab").subscribe { done.countDown() }
+
+        assertEquals(1, scheduler.promote("opened tab", Priority.FOREGROUND))
+        assertEquals(0, scheduler.promote("web head", Priority.PREFETCH))
+
+        release.countDown()
+        done.await(5, TimeUnit.SECONDS)
+
+        assertEquals(listOf("first", "opened tab", "web head"), started)
+    }
+
+    @Test
+    fun unsubscribedExtractionNeverStarts() {
+        val release = CountDownLatch(1)
+        val done = CountDownLatch(2)
+        scheduler.schedule(Priority.FOREGROUND, extraction("first", release)).subscribe { done.countDown() }
+        scheduler.schedule(Priority.PREFETCH, extraction("dropped")).subscribe().unsubscribe()
+        scheduler.schedule(Priority.PREFETCH, extraction("kept")).subscribe { done.countDown() }
+
+        release.countDown()
+        done.await(5, TimeUnit.SECONDS)
+
+        assertEquals(listOf("first", "kept"), started)
+        assertEquals(1, scheduler.stats.cancelled.get())
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import com.chimbori.crux.articles.ArticleExtractor
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compares [HeadTagExtractor] with parsing the whole page through Jsoup, which is what extracting
+ * metadata cost before for pages whose head is not on lines of its own.
+ */
+@Ignore("Benchmark, run manually")
+class HeadTagExtractorBenchmark {
+
+    private val pageUrl = "https://example.com/"
+
+    private val corpus: List<String> by lazy {
+        val head = """<head><meta charset="utf-8"><title>Some article</title>
+            <meta name="description" content="Description"><meta name="theme-color" content="#123456">
+            <link rel="canonical" href="https://example.com/article"><link rel="amphtml" href="/amp">
+            <link rel="icon" sizes="32x32" href="/icon.png"><script>${"var x = 1;".repeat(2000)}</script></head>"""
+        val body = (0 until 4000).joinToString("") { "<p class=\"c\">Paragraph $it with <a href=\"/l$it\">link</a></p>" }
+        listOf(
+                "<!DOCTYPE html><html>${head.replace("\n", "")}<body>$body</body></html>",
+                "<!DOCTYPE html>\n<html>\n$head\n<body>\n${body.replace("</p>", "</p>\n")}</body></html>"
+        )
+    }
+
+    @Test
+    fun streamingVersusFullParse() {
+        repeat(2) {
+            corpus.forEach { page ->
+                val bytes = page.toByteArray()
+                var bytesRead = 0L
+                val streaming = timePerPage {
+                    val extractor = HeadTagExtractor(bytes.inputStream())
+                    extractor.extract(pageUrl, null)
+                    bytesRead += extractor.bytesRead
+                }
+                val jsoup = timePerPage {
+                    ArticleExtractor.with(pageUrl, String(bytes)).extractMetadata().article()
+                }
+                println("page: ${bytes.size} bytes, streaming: $streaming ms (read ${bytesRead / ITERATIONS} bytes), jsoup: $jsoup ms")
+            }
+        }
+    }
+
+    private inline fun timePerPage(block: () -> Unit): Double {
+        val start = System.nanoTime()
+        repeat(ITERATIONS) { block() }
+        return (System.nanoTime() - start) / 1e6 / ITERATIONS
+    }
+
+    companion object {
+        private const val ITERATIONS = 200
+    }
+}
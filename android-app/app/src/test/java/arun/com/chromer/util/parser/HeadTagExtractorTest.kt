@@ -0,0 +1,101 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class HeadTagExtractorTest {
+
+    private val pageUrl = "https://example.com/news/story.html"
+
+    private fun extract(html: String, charset: String = "UTF-8", headerCharset: String? = null): Pair<PageMetadata, Int> {
+        val extractor = HeadTagExtractor(html.toByteArray(charset(charset)).inputStream())
+        return extractor.extract(pageUrl, headerCharset) to extractor.bytesRead
+    }
+
+    @Test
+    fun extractsTitleAndLinks() {
+        val (metadata, _) = extract("""<!DOCTYPE html><html><head><meta charset="utf-8">
+            <title>Caf&eacute; &amp; Bar</title>
+            <meta name="theme-color" content="#ff0000">
+            <link rel="shortcut icon" href="/favicon.ico">
+            <link rel="icon" sizes="16x16" href="/16.png"><link rel="icon" sizes="192x192" href="/192.png">
+            <link rel="canonical" href="https://example.com/story">
+            <link rel="amphtml" href="amp/story.html">
+            </head><body></body></html>""")
+
+        assertEquals("Café & Bar", metadata.title)
+        assertEquals("#ff0000", metadata.themeColor)
+        assertEquals("https://example.com/192.png", metadata.faviconUrl)
+        assertEquals("https://example.com/story", metadata.canonicalUrl)
+        assertEquals("https://example.com/news/amp/story.html", metadata.ampUrl)
+    }
+
+    @Test
+    fun fallsBackToMetaTags() {
+        val (metadata, _) = extract("""<html><head><meta property='og:title' content='Open Graph'>
+            <meta property="og:url" content="/canonical"><link rel=apple-touch-icon href=touch.png></head>""")
+
+        assertEquals("Open Graph", metadata.title)
+        assertEquals("https://example.com/canonical", metadata.canonicalUrl)
+        assertEquals("https://example.com/news/touch.png", metadata.faviconUrl)
+        assertNull(metadata.ampUrl)
+    }
+
+    @Test
+    fun ignoresTagsInCommentsAndScripts() {
+        val (metadata, _) = extract("""<html><HEAD><!-- <title>Comment</title> --->
+            <script>var tag = '<body>'; if (a</b) {}</script><TITLE>Real</TITLE></HEAD>""")
+
+        assertEquals("Real", metadata.title)
+    }
+
+    @Test
+    fun skipsUnknownTagsInHead() {
+        val (metadata, _) = extract("""<html><head><noscript><img src="https://tracker.example/pixel.gif"></noscript>
+            <meta name="theme-color" content="#00ff00"><title>After pixel</title></head><body></body></html>""")
+
+        assertEquals("After pixel", metadata.title)
+        assertEquals("#00ff00", metadata.themeColor)
+    }
+
+    @Test
+    fun decodesWithDeclaredCharset() {
+        val (metadata, _) = extract("""<html><head><meta http-equiv="Content-Type" content="text/html; charset=iso-8859-1">
+            <title>naïve</title></head>""", charset = "ISO-8859-1", headerCharset = "UTF-8")
+
+        assertEquals("naïve", metadata.title)
+    }
+
+    @Test
+    fun stopsReadingAtBodyOfMinifiedPage() {
+        val body = "<p>" + "text ".repeat(100_000) + "</p>"
+        val (metadata, bytesRead) = extract("<html><head><title>Minified</title></head><body>$body</body></html>")
+        val (implicitHead, implicitBytesRead) = extract("<html><title>No body tag</title><div>$body</div></html>")
+
+        assertEquals("Minified", metadata.title)
+        assertEquals("No body tag", implicitHead.title)
+        assertTrue(bytesRead < 4096)
+        assertTrue(implicitBytesRead < 4096)
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import arun.com.chromer.ChromerRobolectricSuite
+import arun.com.chromer.data.website.model.Website
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.net.ServerSocket
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+class RedirectResolverTest : ChromerRobolectricSuite() {
+
+    private lateinit var server: ServerSocket
+    private val requests = AtomicInteger()
+
+    private val baseUrl get() = "http://127.0.0.1:${server.localPort}"
+
+    @Before
+    fun setUp() {
+        server = ServerSocket(0)
+        thread(isDaemon = true) {
+            while (!server.isClosed) {
+                val socket = try {
+                    server.accept()
+                } catch (e: Exception) {
+                    break
+                }
+                socket.use {
+                    val path = it.getInputStream().bufferedReader().readLine().split(' ')[1]
+                    requests.incrementAndGet()
+                    val response = if (path == "/short") {
+                        "HTTP/1.1 301 Moved Permanently\r\nLocation: /article\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    } else {
+                        "HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                    }
+                    it.getOutputStream().write(response.toByteArray())
+                }
+            }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+    }
+
+    @Test
+    fun redirectChainIsFollowedOnce() {
+        val resolver = RedirectResolver(application)
+
+        assertEquals("$baseUrl/article", resolver.resolve("$baseUrl/short").toBlocking().first())
+        assertEquals(2, requests.get())
+
+        assertEquals("$baseUrl/article", resolver.resolve("$baseUrl/short").toBlocking().first())
+        assertEquals("$baseUrl/article", resolver.peekTarget("$baseUrl/short"))
+        assertEquals(2, requests.get())
+    }
+
+    @Test
+    fun linkWithoutRedirectIsRequestedOnce() {
+        val resolver = RedirectResolver(application)
+        val url = "$baseUrl/article"
+
+        assertEquals(url, resolver.resolve(url).toBlocking().first())
+        assertEquals(url, resolver.resolve(url).toBlocking().first())
+
+        assertEquals(url, resolver.peekTarget(url))
+        assertEquals(1, requests.get())
+    }
+
+    @Test
+    fun shortLinkMatchesItsTarget() {
+        val resolver = RedirectResolver(application)
+        val shortUrl = "$baseUrl/short"
+        val article = Website("$baseUrl/article")
+        assertFalse(article.matches(shortUrl, resolver))
+
+        resolver.resolve(shortUrl).toBlocking().first()
+
+        assertTrue(article.matches(shortUrl, resolver))
+        assertTrue(Website(shortUrl).matches("$baseUrl/article", resolver))
+    }
+
+    @Test
+    fun unreachableLinkIsNotCached() {
+        val resolver = RedirectResolver(application)
+        val url = "$baseUrl/short"
+        server.close()
+
+        assertEquals(url, resolver.resolve(url).toBlocking().first())
+        assertNull(resolver.peekTarget(url))
+    }
+}
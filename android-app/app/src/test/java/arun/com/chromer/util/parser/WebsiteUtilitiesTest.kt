@@ -0,0 +1,107 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package arun.com.chromer.util.parser
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.BufferedReader
+import java.io.InputStreamReader
+import java.net.ServerSocket
+import java.net.Socket
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+
+class WebsiteUtilitiesTest {
+
+    private lateinit var server: ServerSocket
+    private val connections = AtomicInteger()
+    private val requests = AtomicInteger()
+
+    private val baseUrl get() = "http://127.0.0.1:${server.localPort}"
+
+    @Before
+    fun setUp() {
+        WebsiteUtilities.setFetchEngine(UrlConnectionFetchEngine(4))
+        server = ServerSocket(0)
+        thread(isDaemon = true) {
+            while (!server.isClosed) {
+                val socket = try {
+                    server.accept()
+                } catch (e: Exception) {
+                    break
+                }
+                connections.incrementAndGet()
+                thread(isDaemon = true) { serve(socket) }
+            }
+        }
+    }
+
+    @After
+    fun tearDown() {
+        server.close()
+    }
+
+    @Test
+    fun redirectHopsAndPageFetchesShareConnections() {
+        repeat(5) {
+            assertEquals("$baseUrl/article", WebsiteUtilities.getRedirect("$baseUrl/short")!!.location)
+            assertEquals("Article", WebsiteUtilities.headResponse("$baseUrl/article", null, null).metadata!!.title)
+        }
+
+        assertEquals(10, requests.get())
+        assertTrue("${connections.get()} connections for 10 requests", connections.get() <= 2)
+    }
+
+    @Test
+    fun notModifiedResponseKeepsConnection() {
+        repeat(3) {
+            assertTrue(WebsiteUtilities.headResponse("$baseUrl/article", "\"v1\"", null).isNotModified)
+        }
+
+        assertEquals(3, requests.get())
+        assertEquals(1, connections.get())
+    }
+
+    private fun serve(socket: Socket) = socket.use {
+        val reader = BufferedReader(InputStreamReader(socket.getInputStream(), Charsets.ISO_8859_1))
+        val out = socket.getOutputStream()
+        while (true) {
+            val requestLine = reader.readLine() ?: return
+            val headers = generateSequence { reader.readLine() }
+                    .takeWhile { it.isNotEmpty() }
+                    .map { it.substringBefore(':').toLowerCase() to it.substringAfter(':').trim() }
+                    .toMap()
+            requests.incrementAndGet()
+            val (method, path) = requestLine.split(' ')
+            val body = "<html><head><title>Article</title></head><body>Body</body></html>"
+            val response = when {
+                path == "/short" -> "HTTP/1.1 301 Moved Permanently\r\nLocation: /article\r\nContent-Length: 0\r\n\r\n"
+                headers["if-none-match"] == "\"v1\"" -> "HTTP/1.1 304 Not Modified\r\nETag: \"v1\"\r\n\r\n"
+                else -> "HTTP/1.1 200 OK\r\nETag: \"v1\"\r\nContent-Type: text/html; charset=utf-8\r\n" +
+                        "Content-Length: ${body.length}\r\n\r\n" + if (method == "HEAD") "" else body
+            }
+            out.write(response.toByteArray(Charsets.ISO_8859_1))
+            out.flush()
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes serialized values to a {@link DiskLruCache} off the caller's thread.
+ * <p>
+ * Writes are coalesced per key: if a key is written again before its previous value reached the
+ * disk, only the latest value is written. Values stay readable through {@link #get(String)} until
+ * they are committed, which gives callers read-your-writes consistency. At most
+ * {@code maxPending} keys can be pending at once; once full, new keys are written on the caller's
+ * thread instead of growing the queue.
+ */
+final class AsyncWriteQueue {
+    private final DiskLruCache cache;
+    private final Executor executor;
+    private final int maxPending;
+
+    private final Map<String, byte[]> pending = new HashMap<>();
+    /**
+     * Held while a value is being written so that {@link #remove(String)} can wait out an
+     * in-flight write that would otherwise resurrect a removed key.
+     */
+    private final Object writeLock = new Object();
+
+    AsyncWriteQueue(DiskLruCache cache, Executor executor, int maxPending) {
+        this.cache = cache;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Queues {@code value} to be written for {@code key}, replacing any value still pending for it.
+     */
+    void put(String key, byte[] value) {
+        final boolean queued;
+        synchronized (pending) {
+            if (pending.containsKey(key)) {
+                pending.put(key, value);
+                return;
+            }
+            queued = pending.size() < maxPending;
+            if (queued) {
+                pending.put(key, value);
+            }
+        }
+        if (queued) {
+            executor.execute(new WriteTask(key));
+        } else {
+            synchronized (writeLock) {
+                write(cache, key, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the value still pending for {@code key}, or null if there is none.
+     */
+    @Nullable
+    byte[] get(String key) {
+        synchronized (pending) {
+            return pending.get(key);
+        }
+    }
+
+    /**
+     * Drops the value pending for {@code key}, waiting for it to finish if it is being written.
+     */
+    void remove(String key) {
+        synchronized (writeLock) {
+            synchronized (pending) {
+                pending.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops all pending values, waiting for the write in progress if any.
+     */
+    void clear() {
+        synchronized (writeLock) {
+            synchronized (pending) {
+                pending.clear();
+            }
+        }
+    }
+
+    int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Blocks until every value queued before this call is written to the cache.
+     */
+    void flush() throws InterruptedException {
+        final CountDownLatch barrier = new CountDownLatch(1);
+        executor.execute(barrier::countDown);
+        barrier.await();
+    }
+
+    static void write(DiskLruCache cache, String key, byte[] value) {
+        try {
+            final DiskLruCache.Editor editor = cache.edit(key);
+            if (editor == null) {
+                return; // Another edit is in progress.
+            }
+            final OutputStream outputStream = editor.newOutputStream(0);
+            ParcelDiskCache.writeBytesToStream(outputStream, value);
+            editor.commit();
+        } catch (IOException | IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private final class WriteTask implements Runnable {
+        private final String key;
+
+        private WriteTask(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            synchronized (writeLock) {
+                byte[] value = get(key);
+                while (value != null) {
+                    write(cache, key, value);
+                    synchronized (pending) {
+                        final byte[] latest = pending.get(key);
+                        if (latest == value) {
+                            pending.remove(key);
+                            value = null;
+                        } else {
+                            // Replaced while being written, write the newer value too.
+                            value = latest;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
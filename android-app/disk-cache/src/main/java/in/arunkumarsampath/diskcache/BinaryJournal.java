@@ -0,0 +1,220 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Binary encoding of the {@link DiskLruCache} journal.
+ * <p>
+ * The header is the 4 byte {@link #MAGIC}, a version byte, the application's version and the value
+ * count as big endian ints. Every record that follows starts with an op byte. Keys of the 32
+ * character hex form produced by {@link CacheKeys} are stored as 16 raw bytes and flagged with
+ * {@link #PACKED_KEY} in the op byte, which makes their records fixed width; other keys are stored
+ * as a length byte followed by their ASCII bytes. {@link #CLEAN} records end with one 8 byte
+ * length per value.
+ * <p>
+ * The magic's first byte can not start a text journal, so the two formats can share a file name
+ * and be told apart by {@link #isBinary(File)}.
+ */
+final class BinaryJournal {
+    static final int MAGIC = 0xD14C5255;
+    static final int VERSION = 1;
+
+    static final int CLEAN = 1;
+    static final int DIRTY = 2;
+    static final int REMOVE = 3;
+    static final int READ = 4;
+    static final int PACKED_KEY = 0x80;
+
+    private static final int PACKED_KEY_BYTES = CacheKeys.LENGTH / 2;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private BinaryJournal() {
+    }
+
+    /**
+     * Returns true if {@code journalFile} starts with the binary journal magic.
+     */
+    static boolean isBinary(File journalFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(journalFile));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            DiskCacheUtil.closeQuietly(in);
+        }
+    }
+
+    static void writeHeader(DataOutputStream out, int appVersion, int valueCount) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(appVersion);
+        out.writeInt(valueCount);
+    }
+
+    static void writeRecord(DataOutputStream out, int op, String key) throws IOException {
+        if (isPackable(key)) {
+            out.writeByte(op | PACKED_KEY);
+            for (int i = 0; i < CacheKeys.LENGTH; i += 2) {
+                out.writeByte((hexValue(key.charAt(i)) << 4) | hexValue(key.charAt(i + 1)));
+            }
+        } else {
+            out.writeByte(op);
+            out.writeByte(key.length());
+            out.writeBytes(key);
+        }
+    }
+
+    /**
+     * Returns true if {@code key} is 32 lowercase hex characters and can be stored in 16 bytes.
+     */
+    private static boolean isPackable(String key) {
+        if (key.length() != CacheKeys.LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < CacheKeys.LENGTH; i++) {
+            if (hexValue(key.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a binary journal one record at a time. A record cut short by the end of the file, as
+     * left behind by a crash during an append, ends the journal and is reported by
+     * {@link #isTruncated()}.
+     */
+    static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long[] lengths;
+        private final byte[] keyBytes = new byte[255];
+        private final char[] keyChars = new char[255];
+        private int op;
+        private String key;
+        private boolean truncated;
+
+        Reader(InputStream in, int valueCount) {
+            this.in = new DataInputStream(new BufferedInputStream(in, 8192));
+            this.lengths = new long[valueCount];
+        }
+
+        void readHeader(int appVersion) throws IOException {
+            final int magic = in.readInt();
+            final int version = in.readUnsignedByte();
+            final int appVersionRead = in.readInt();
+            final int valueCount = in.readInt();
+            if (magic != MAGIC
+                    || version != VERSION
+                    || appVersionRead != appVersion
+                    || valueCount != lengths.length) {
+                throw new IOException("unexpected journal header: [" + Integer.toHexString(magic)
+                        + ", " + version + ", " + appVersionRead + ", " + valueCount + "]");
+            }
+        }
+
+        /**
+         * Reads the next record, returning false at the end of the journal.
+         */
+        boolean next() throws IOException {
+            final int opByte = in.read();
+            if (opByte == -1) {
+                return false;
+            }
+            op = opByte & ~PACKED_KEY;
+            if (op < CLEAN || op > READ) {
+                throw new IOException("unexpected journal record: " + opByte);
+            }
+            try {
+                key = (opByte & PACKED_KEY) != 0 ? readPackedKey() : readKey();
+                if (op == CLEAN) {
+                    for (int i = 0; i < lengths.length; i++) {
+                        lengths[i] = in.readLong();
+                    }
+                }
+                return true;
+            } catch (EOFException e) {
+                truncated = true;
+                return false;
+            }
+        }
+
+        private String readPackedKey() throws IOException {
+            in.readFully(keyBytes, 0, PACKED_KEY_BYTES);
+            for (int i = 0; i < PACKED_KEY_BYTES; i++) {
+                keyChars[i * 2] = HEX[(keyBytes[i] >> 4) & 0xf];
+                keyChars[i * 2 + 1] = HEX[keyBytes[i] & 0xf];
+            }
+            return new String(keyChars, 0, CacheKeys.LENGTH);
+        }
+
+        private String readKey() throws IOException {
+            final int length = in.readUnsignedByte();
+            in.readFully(keyBytes, 0, length);
+            for (int i = 0; i < length; i++) {
+                keyChars[i] = (char) (keyBytes[i] & 0xff);
+            }
+            return new String(keyChars, 0, length);
+        }
+
+        int op() {
+            return op;
+        }
+
+        String key() {
+            return key;
+        }
+
+        /**
+         * Value lengths of the last {@link #CLEAN} record. The array is reused between records.
+         */
+        long[] lengths() {
+            return lengths;
+        }
+
+        boolean isTruncated() {
+            return truncated;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+/**
+ * Derives {@link DiskLruCache} keys from arbitrary strings such as urls.
+ * <p>
+ * Keys are a fixed length, 128 bit hex hash of the full string so distinct strings map to
+ * distinct entries instead of being normalized into each other. The hash is not cryptographic;
+ * {@link ParcelDiskCache} stores the original key in every entry and checks it on read, so a
+ * collision can only ever cause a cache miss.
+ */
+final class CacheKeys {
+    static final int LENGTH = 32;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX_SEED = 0x9e3779b97f4a7c15L;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private CacheKeys() {
+    }
+
+    /**
+     * Returns a 32 character key matching {@code [a-z0-9]} for {@code key}.
+     */
+    static String hash(String key) {
+        long fnv = FNV_OFFSET_BASIS;
+        long mix = MIX_SEED ^ key.length();
+        for (int i = 0, length = key.length(); i < length; i++) {
+            final char c = key.charAt(i);
+            fnv = (fnv ^ (c & 0xff)) * FNV_PRIME;
+            fnv = (fnv ^ (c >>> 8)) * FNV_PRIME;
+            mix = (mix ^ c) * MIX_SEED;
+            mix ^= mix >>> 29;
+        }
+        final char[] chars = new char[LENGTH];
+        writeHex(fmix64(fnv), chars, 0);
+        writeHex(fmix64(mix), chars, 16);
+        return new String(chars);
+    }
+
+    /**
+     * Finalization step of MurmurHash3, spreads every input bit over the whole output.
+     */
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void writeHex(long value, char[] out, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            out[offset + i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+}
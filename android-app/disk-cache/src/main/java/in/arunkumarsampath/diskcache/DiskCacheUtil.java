@@ -20,8 +20,10 @@
 package in.arunkumarsampath.diskcache;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
@@ -50,6 +52,36 @@ final class DiskCacheUtil {
         }
     }
 
+    /**
+     * Reads exactly {@code length} bytes from {@code in} into a single array sized up front and
+     * closes the stream, avoiding the intermediate buffer copies of a growing output stream.
+     *
+     * @throws EOFException if the stream does not hold exactly {@code length} bytes, e.g. when the
+     *                      file was changed outside of the cache.
+     */
+    static byte[] readExactly(InputStream in, long length) throws IOException {
+        try {
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("unexpected length: " + length);
+            }
+            final byte[] bytes = new byte[(int) length];
+            int offset = 0;
+            while (offset < bytes.length) {
+                final int count = in.read(bytes, offset, bytes.length - offset);
+                if (count == -1) {
+                    throw new EOFException("expected " + length + " bytes, got " + offset);
+                }
+                offset += count;
+            }
+            if (in.read() != -1) {
+                throw new EOFException("expected " + length + " bytes, got more");
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Deletes the contents of {@code dir}. Throws an IOException if any file
      * could not be deleted, or if {@code dir} is not a readable directory.
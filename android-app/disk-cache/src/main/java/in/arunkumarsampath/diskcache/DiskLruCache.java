@@ -21,7 +21,6 @@ package in.arunkumarsampath.diskcache;
 
 import android.support.annotation.NonNull;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
@@ -43,7 +42,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 /**
@@ -99,10 +98,19 @@ public final class DiskLruCache implements Closeable {
     static final long ANY_SEQUENCE_NUMBER = -1;
     static final String STRING_KEY_PATTERN = "[a-z0-9_-]{1,120}";
     static final Pattern LEGAL_KEY_PATTERN = Pattern.compile(STRING_KEY_PATTERN);
-    private static final String CLEAN = "CLEAN";
-    private static final String DIRTY = "DIRTY";
-    private static final String REMOVE = "REMOVE";
-    private static final String READ = "READ";
+    static final String CLEAN = "CLEAN";
+    static final String DIRTY = "DIRTY";
+    static final String REMOVE = "REMOVE";
+    static final String READ = "READ";
+    /**
+     * We only rebuild the journal when it will halve the size of the journal and eliminate at
+     * least this many ops.
+     */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    /**
+     * Number of times a read retries when edits keep getting published while it opens files.
+     */
+    private static final int MAX_READ_ATTEMPTS = 3;
 
     /*
      * This cache uses a journal file named "journal". A typical journal file
@@ -142,6 +150,11 @@ public final class DiskLruCache implements Closeable {
      * occasionally be compacted by dropping redundant lines. A temporary file named
      * "journal.tmp" will be used during compaction; that file should be deleted if
      * it exists when the cache is opened.
+     *
+     * Caches opened with a binary journal store the same records in the fixed
+     * width encoding described in BinaryJournal, which avoids splitting and
+     * parsing lines on open. A journal in the other format is read and then
+     * rewritten in the requested one, so switching formats keeps all entries.
      */
 
     private final File directory;
@@ -151,11 +164,21 @@ public final class DiskLruCache implements Closeable {
     private final int appVersion;
     private long maxSize;
     private final int valueCount;
-    private long size = 0;
-    private Writer journalWriter;
+    private final boolean binaryJournal;
+    /*
+     * Locking: the cache's monitor guards lruEntries, the state of every entry and size. Reads
+     * only hold it to look up and validate an entry; opening files and appending READ records
+     * happen outside of it so that reads of different keys proceed in parallel.
+     *
+     * journalLock guards appends to journalWriter. When both are needed the cache's monitor is
+     * always taken first. journalWriter itself is only reassigned while holding both.
+     */
+    private final Object journalLock = new Object();
+    private volatile long size = 0;
+    private JournalWriter journalWriter;
     private final LinkedHashMap<String, Entry> lruEntries =
             new LinkedHashMap<>(0, 0.75f, true);
-    private int redundantOpCount;
+    private final AtomicInteger redundantOpCount = new AtomicInteger();
 
     /**
      * To differentiate between old and current snapshots, each entry is given
@@ -178,14 +201,14 @@ public final class DiskLruCache implements Closeable {
                 trimToSize();
                 if (journalRebuildRequired()) {
                     rebuildJournal();
-                    redundantOpCount = 0;
+                    redundantOpCount.set(0);
                 }
             }
             return null;
         }
     };
 
-    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize) {
+    private DiskLruCache(File directory, int appVersion, int valueCount, long maxSize, boolean binaryJournal) {
         this.directory = directory;
         this.appVersion = appVersion;
         this.journalFile = new File(directory, JOURNAL_FILE);
@@ -193,6 +216,7 @@ public final class DiskLruCache implements Closeable {
         this.journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
         this.valueCount = valueCount;
         this.maxSize = maxSize;
+        this.binaryJournal = binaryJournal;
     }
 
     /**
@@ -206,6 +230,23 @@ public final class DiskLruCache implements Closeable {
      */
     public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize)
             throws IOException {
+        return open(directory, appVersion, valueCount, maxSize, false);
+    }
+
+    /**
+     * Opens the cache in {@code directory}, creating a cache if none exists
+     * there.
+     *
+     * @param directory     a writable directory
+     * @param valueCount    the number of values per cache entry. Must be positive.
+     * @param maxSize       the maximum number of bytes this cache should use to store
+     * @param binaryJournal true to keep the journal in the compact binary format, which is
+     *                      faster to read when the cache holds many entries. An existing
+     *                      journal in the other format is migrated.
+     * @throws IOException if reading or writing the cache directory fails
+     */
+    public static DiskLruCache open(File directory, int appVersion, int valueCount, long maxSize,
+                                    boolean binaryJournal) throws IOException {
         if (maxSize <= 0) {
             throw new IllegalArgumentException("maxSize <= 0");
         }
@@ -227,7 +268,7 @@ public final class DiskLruCache implements Closeable {
         }
 
         // Prefer to pick up where we left off.
-        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, binaryJournal);
         if (cache.journalFile.exists()) {
             try {
                 cache.readJournal();
@@ -247,12 +288,28 @@ public final class DiskLruCache implements Closeable {
         // Create a new empty cache.
         //noinspection ResultOfMethodCallIgnored
         directory.mkdirs();
-        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
+        cache = new DiskLruCache(directory, appVersion, valueCount, maxSize, binaryJournal);
         cache.rebuildJournal();
         return cache;
     }
 
     private void readJournal() throws IOException {
+        final boolean journalIsBinary = BinaryJournal.isBinary(journalFile);
+        final boolean truncated = journalIsBinary ? readBinaryJournal() : readTextJournal();
+
+        // If we ended on a truncated record or the journal is in the other format, rebuild the
+        // journal before appending to it.
+        if (truncated || journalIsBinary != binaryJournal) {
+            rebuildJournal();
+        } else {
+            journalWriter = JournalWriter.create(new FileOutputStream(journalFile, true), binaryJournal);
+        }
+    }
+
+    /**
+     * Reads the text journal, returning true if it ended on a truncated line.
+     */
+    private boolean readTextJournal() throws IOException {
         StrictLineReader reader = new StrictLineReader(new FileInputStream(journalFile), DiskCacheUtil.US_ASCII);
         try {
             String magic = reader.readLine();
@@ -278,20 +335,60 @@ public final class DiskLruCache implements Closeable {
                     break;
                 }
             }
-            redundantOpCount = lineCount - lruEntries.size();
+            redundantOpCount.set(lineCount - lruEntries.size());
+            return reader.hasUnterminatedLine();
+        } finally {
+            DiskCacheUtil.closeQuietly(reader);
+        }
+    }
 
-            // If we ended on a truncated line, rebuild the journal before appending to it.
-            if (reader.hasUnterminatedLine()) {
-                rebuildJournal();
-            } else {
-                journalWriter = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(journalFile, true), DiskCacheUtil.US_ASCII));
+    /**
+     * Reads the binary journal, returning true if it ended on a truncated record.
+     */
+    private boolean readBinaryJournal() throws IOException {
+        BinaryJournal.Reader reader = new BinaryJournal.Reader(new FileInputStream(journalFile), valueCount);
+        try {
+            reader.readHeader(appVersion);
+            int recordCount = 0;
+            while (reader.next()) {
+                readJournalRecord(reader.op(), reader.key(), reader.lengths());
+                recordCount++;
             }
+            redundantOpCount.set(recordCount - lruEntries.size());
+            return reader.isTruncated();
         } finally {
             DiskCacheUtil.closeQuietly(reader);
         }
     }
 
+    private void readJournalRecord(int op, String key, long[] lengths) throws IOException {
+        if (op == BinaryJournal.REMOVE) {
+            lruEntries.remove(key);
+            return;
+        }
+
+        Entry entry = lruEntries.get(key);
+        if (entry == null) {
+            if (op == BinaryJournal.READ) {
+                // A read racing with a removal of the key may be recorded after the REMOVE.
+                return;
+            }
+            entry = new Entry(key);
+            lruEntries.put(key, entry);
+        }
+
+        if (op == BinaryJournal.CLEAN) {
+            entry.readable = true;
+            entry.currentEditor = null;
+            System.arraycopy(lengths, 0, entry.lengths, 0, valueCount);
+        } else if (op == BinaryJournal.DIRTY) {
+            entry.currentEditor = new Editor(entry);
+        } else if (op != BinaryJournal.READ) {
+            // READ work was already done by calling lruEntries.get().
+            throw new IOException("unexpected journal record: " + op);
+        }
+    }
+
     private void readJournalLine(String line) throws IOException {
         int firstSpace = line.indexOf(' ');
         if (firstSpace == -1) {
@@ -357,45 +454,40 @@ public final class DiskLruCache implements Closeable {
     /**
      * Creates a new journal that omits redundant information. This replaces the
      * current journal if it exists.
+     * <p>
+     * Holds journalLock throughout, so that no READ record is appended to a closed writer or to
+     * the journal being replaced. The LRU order of those reads is already part of the new journal.
      */
     private synchronized void rebuildJournal() throws IOException {
-        if (journalWriter != null) {
-            journalWriter.close();
-        }
+        synchronized (journalLock) {
+            if (journalWriter != null) {
+                journalWriter.close();
+            }
 
-        Writer writer = new BufferedWriter(
-                new OutputStreamWriter(new FileOutputStream(journalFileTmp), DiskCacheUtil.US_ASCII));
-        try {
-            writer.write(MAGIC);
-            writer.write("\n");
-            writer.write(VERSION_1);
-            writer.write("\n");
-            writer.write(Integer.toString(appVersion));
-            writer.write("\n");
-            writer.write(Integer.toString(valueCount));
-            writer.write("\n");
-            writer.write("\n");
-
-            for (Entry entry : lruEntries.values()) {
-                if (entry.currentEditor != null) {
-                    writer.write(DIRTY + ' ' + entry.key + '\n');
-                } else {
-                    writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+            JournalWriter writer = JournalWriter.create(new FileOutputStream(journalFileTmp), binaryJournal);
+            try {
+                writer.writeHeader(appVersion, valueCount);
+
+                for (Entry entry : lruEntries.values()) {
+                    if (entry.currentEditor != null) {
+                        writer.writeDirty(entry.key);
+                    } else {
+                        writer.writeClean(entry.key, entry.lengths);
+                    }
                 }
+            } finally {
+                writer.close();
             }
-        } finally {
-            writer.close();
-        }
 
-        if (journalFile.exists()) {
-            renameTo(journalFile, journalFileBackup, true);
-        }
-        renameTo(journalFileTmp, journalFile, false);
-        //noinspection ResultOfMethodCallIgnored
-        journalFileBackup.delete();
+            if (journalFile.exists()) {
+                renameTo(journalFile, journalFileBackup, true);
+            }
+            renameTo(journalFileTmp, journalFile, false);
+            //noinspection ResultOfMethodCallIgnored
+            journalFileBackup.delete();
 
-        journalWriter = new BufferedWriter(
-                new OutputStreamWriter(new FileOutputStream(journalFile, true), DiskCacheUtil.US_ASCII));
+            journalWriter = JournalWriter.create(new FileOutputStream(journalFile, true), binaryJournal);
+        }
     }
 
     private static void deleteIfExists(File file) throws IOException {
@@ -418,45 +510,84 @@ public final class DiskLruCache implements Closeable {
      * exist is not currently readable. If a value is returned, it is moved to
      * the head of the LRU queue.
      */
-    public synchronized Snapshot get(String key) throws IOException {
-        checkNotClosed();
+    public Snapshot get(String key) throws IOException {
         validateKey(key);
-        Entry entry = lruEntries.get(key);
-        if (entry == null) {
-            return null;
-        }
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            final Entry entry;
+            final long sequenceNumber;
+            final long[] lengths;
+            synchronized (this) {
+                checkNotClosed();
+                entry = lruEntries.get(key);
+                if (entry == null || !entry.readable) {
+                    return null;
+                }
+                sequenceNumber = entry.sequenceNumber;
+                // Copy lengths so that a later commit to the entry does not change this snapshot.
+                lengths = entry.lengths.clone();
+            }
 
-        if (!entry.readable) {
-            return null;
+            // Open all streams eagerly to guarantee that we see a single published
+            // snapshot. If we opened streams lazily then the streams could come
+            // from different edits.
+            final InputStream[] ins = openCleanFiles(entry);
+            if (ins == null) {
+                return null;
+            }
+
+            // An edit may have been published while the files were being opened, in which case
+            // they may not match the lengths read above. Start over to read the new edit.
+            final boolean stale;
+            synchronized (this) {
+                stale = lruEntries.get(key) != entry || entry.sequenceNumber != sequenceNumber;
+            }
+            if (stale) {
+                closeAll(ins);
+                continue;
+            }
+
+            synchronized (journalLock) {
+                if (journalWriter == null) {
+                    closeAll(ins);
+                    throw new IllegalStateException("cache is closed");
+                }
+                journalWriter.writeRead(key);
+            }
+            if (redundantOpCount.incrementAndGet() >= REDUNDANT_OP_COMPACT_THRESHOLD) {
+                final boolean rebuild;
+                synchronized (this) {
+                    rebuild = journalRebuildRequired();
+                }
+                if (rebuild) {
+                    executorService.submit(cleanupCallable);
+                }
+            }
+            return new Snapshot(key, sequenceNumber, ins, lengths);
         }
+        return null;
+    }
 
-        // Open all streams eagerly to guarantee that we see a single published
-        // snapshot. If we opened streams lazily then the streams could come
-        // from different edits.
-        InputStream[] ins = new InputStream[valueCount];
+    /**
+     * Opens the clean files of {@code entry}, or returns null if any of them is missing.
+     */
+    private InputStream[] openCleanFiles(Entry entry) {
+        final InputStream[] ins = new InputStream[valueCount];
         try {
             for (int i = 0; i < valueCount; i++) {
                 ins[i] = new FileInputStream(entry.getCleanFile(i));
             }
+            return ins;
         } catch (FileNotFoundException e) {
-            // A file must have been deleted manually!
-            for (int i = 0; i < valueCount; i++) {
-                if (ins[i] != null) {
-                    DiskCacheUtil.closeQuietly(ins[i]);
-                } else {
-                    break;
-                }
-            }
+            // A file must have been deleted manually or by a concurrent remove.
+            closeAll(ins);
             return null;
         }
+    }
 
-        redundantOpCount++;
-        journalWriter.append(READ + ' ').append(key).append('\n');
-        if (journalRebuildRequired()) {
-            executorService.submit(cleanupCallable);
+    private static void closeAll(InputStream[] ins) {
+        for (InputStream in : ins) {
+            DiskCacheUtil.closeQuietly(in);
         }
-
-        return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths);
     }
 
     /**
@@ -486,8 +617,10 @@ public final class DiskLruCache implements Closeable {
         entry.currentEditor = editor;
 
         // Flush the journal before creating files to prevent file leaks.
-        journalWriter.write(DIRTY + ' ' + key + '\n');
-        journalWriter.flush();
+        synchronized (journalLock) {
+            journalWriter.writeDirty(key);
+            journalWriter.flush();
+        }
         return editor;
     }
 
@@ -520,7 +653,7 @@ public final class DiskLruCache implements Closeable {
      * this cache. This may be greater than the max size if a background
      * deletion is pending.
      */
-    public synchronized long size() {
+    public long size() {
         return size;
     }
 
@@ -561,19 +694,21 @@ public final class DiskLruCache implements Closeable {
             }
         }
 
-        redundantOpCount++;
+        redundantOpCount.incrementAndGet();
         entry.currentEditor = null;
-        if (entry.readable | success) {
-            entry.readable = true;
-            journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
-            if (success) {
-                entry.sequenceNumber = nextSequenceNumber++;
+        synchronized (journalLock) {
+            if (entry.readable | success) {
+                entry.readable = true;
+                journalWriter.writeClean(entry.key, entry.lengths);
+                if (success) {
+                    entry.sequenceNumber = nextSequenceNumber++;
+                }
+            } else {
+                lruEntries.remove(entry.key);
+                journalWriter.writeRemove(entry.key);
             }
-        } else {
-            lruEntries.remove(entry.key);
-            journalWriter.write(REMOVE + ' ' + entry.key + '\n');
+            journalWriter.flush();
         }
-        journalWriter.flush();
 
         if (size > maxSize || journalRebuildRequired()) {
             executorService.submit(cleanupCallable);
@@ -585,9 +720,9 @@ public final class DiskLruCache implements Closeable {
      * and eliminate at least 2000 ops.
      */
     private boolean journalRebuildRequired() {
-        final int redundantOpCompactThreshold = 2000;
-        return redundantOpCount >= redundantOpCompactThreshold //
-                && redundantOpCount >= lruEntries.size();
+        final int redundantOps = redundantOpCount.get();
+        return redundantOps >= REDUNDANT_OP_COMPACT_THRESHOLD //
+                && redundantOps >= lruEntries.size();
     }
 
     /**
@@ -613,8 +748,10 @@ public final class DiskLruCache implements Closeable {
             entry.lengths[i] = 0;
         }
 
-        redundantOpCount++;
-        journalWriter.append(REMOVE + ' ').append(key).append('\n');
+        redundantOpCount.incrementAndGet();
+        synchronized (journalLock) {
+            journalWriter.writeRemove(key);
+        }
         lruEntries.remove(key);
 
         if (journalRebuildRequired()) {
@@ -643,7 +780,9 @@ public final class DiskLruCache implements Closeable {
     public synchronized void flush() throws IOException {
         checkNotClosed();
         trimToSize();
-        journalWriter.flush();
+        synchronized (journalLock) {
+            journalWriter.flush();
+        }
     }
 
     /**
@@ -659,8 +798,10 @@ public final class DiskLruCache implements Closeable {
             }
         }
         trimToSize();
-        journalWriter.close();
-        journalWriter = null;
+        synchronized (journalLock) {
+            journalWriter.close();
+            journalWriter = null;
+        }
     }
 
     private void trimToSize() throws IOException {
@@ -681,13 +822,29 @@ public final class DiskLruCache implements Closeable {
     }
 
     private void validateKey(String key) {
-        Matcher matcher = LEGAL_KEY_PATTERN.matcher(key);
-        if (!matcher.matches()) {
+        if (!isLegalKey(key)) {
             throw new IllegalArgumentException("keys must match regex "
                     + STRING_KEY_PATTERN + ": \"" + key + "\"");
         }
     }
 
+    /**
+     * Same as matching {@link #LEGAL_KEY_PATTERN}, without allocating a matcher on every call.
+     */
+    static boolean isLegalKey(String key) {
+        final int length = key.length();
+        if (length < 1 || length > 120) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = key.charAt(i);
+            if ((c < 'a' || c > 'z') && (c < '0' || c > '9') && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static String inputStreamToString(InputStream in) throws IOException {
         return DiskCacheUtil.readFully(new InputStreamReader(in, DiskCacheUtil.UTF_8));
     }
@@ -778,11 +935,11 @@ public final class DiskLruCache implements Closeable {
                 if (!entry.readable) {
                     return null;
                 }
-                try {
-                    return new FileInputStream(entry.getCleanFile(index));
-                } catch (FileNotFoundException e) {
-                    return null;
-                }
+            }
+            try {
+                return new FileInputStream(entry.getCleanFile(index));
+            } catch (FileNotFoundException e) {
+                return null;
             }
         }
 
@@ -815,23 +972,24 @@ public final class DiskLruCache implements Closeable {
                 if (!entry.readable) {
                     written[index] = true;
                 }
-                File dirtyFile = entry.getDirtyFile(index);
-                FileOutputStream outputStream;
+            }
+            // Only this editor writes to the dirty file, no need to hold the cache lock.
+            File dirtyFile = entry.getDirtyFile(index);
+            FileOutputStream outputStream;
+            try {
+                outputStream = new FileOutputStream(dirtyFile);
+            } catch (FileNotFoundException e) {
+                // Attempt to recreate the cache directory.
+                //noinspection ResultOfMethodCallIgnored
+                directory.mkdirs();
                 try {
                     outputStream = new FileOutputStream(dirtyFile);
-                } catch (FileNotFoundException e) {
-                    // Attempt to recreate the cache directory.
-                    //noinspection ResultOfMethodCallIgnored
-                    directory.mkdirs();
-                    try {
-                        outputStream = new FileOutputStream(dirtyFile);
-                    } catch (FileNotFoundException e2) {
-                        // We are unable to recover. Silently eat the writes.
-                        return NULL_OUTPUT_STREAM;
-                    }
+                } catch (FileNotFoundException e2) {
+                    // We are unable to recover. Silently eat the writes.
+                    return NULL_OUTPUT_STREAM;
                 }
-                return new FaultHidingOutputStream(outputStream);
             }
+            return new FaultHidingOutputStream(outputStream);
         }
 
         /**
@@ -949,14 +1107,6 @@ public final class DiskLruCache implements Closeable {
             this.lengths = new long[valueCount];
         }
 
-        public String getLengths() throws IOException {
-            StringBuilder result = new StringBuilder();
-            for (long size : lengths) {
-                result.append(' ').append(size);
-            }
-            return result.toString();
-        }
-
         /**
          * Set lengths using decimal numbers like "10123".
          */
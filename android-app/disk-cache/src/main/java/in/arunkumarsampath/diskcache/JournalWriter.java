@@ -0,0 +1,152 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Appends records to a {@link DiskLruCache} journal in either the text or the
+ * {@link BinaryJournal binary} format.
+ */
+abstract class JournalWriter implements Closeable, Flushable {
+
+    static JournalWriter create(OutputStream out, boolean binary) {
+        return binary ? new Binary(out) : new Text(out);
+    }
+
+    abstract void writeHeader(int appVersion, int valueCount) throws IOException;
+
+    abstract void writeClean(String key, long[] lengths) throws IOException;
+
+    abstract void writeDirty(String key) throws IOException;
+
+    abstract void writeRemove(String key) throws IOException;
+
+    abstract void writeRead(String key) throws IOException;
+
+    private static final class Text extends JournalWriter {
+        private final Writer writer;
+
+        private Text(OutputStream out) {
+            writer = new BufferedWriter(new OutputStreamWriter(out, DiskCacheUtil.US_ASCII));
+        }
+
+        @Override
+        void writeHeader(int appVersion, int valueCount) throws IOException {
+            writer.write(DiskLruCache.MAGIC);
+            writer.write("\n");
+            writer.write(DiskLruCache.VERSION_1);
+            writer.write("\n");
+            writer.write(Integer.toString(appVersion));
+            writer.write("\n");
+            writer.write(Integer.toString(valueCount));
+            writer.write("\n");
+            writer.write("\n");
+        }
+
+        @Override
+        void writeClean(String key, long[] lengths) throws IOException {
+            final StringBuilder line = new StringBuilder(DiskLruCache.CLEAN).append(' ').append(key);
+            for (long length : lengths) {
+                line.append(' ').append(length);
+            }
+            writer.write(line.append('\n').toString());
+        }
+
+        @Override
+        void writeDirty(String key) throws IOException {
+            writer.write(DiskLruCache.DIRTY + ' ' + key + '\n');
+        }
+
+        @Override
+        void writeRemove(String key) throws IOException {
+            writer.write(DiskLruCache.REMOVE + ' ' + key + '\n');
+        }
+
+        @Override
+        void writeRead(String key) throws IOException {
+            writer.write(DiskLruCache.READ + ' ' + key + '\n');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    private static final class Binary extends JournalWriter {
+        private final DataOutputStream out;
+
+        private Binary(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 8192));
+        }
+
+        @Override
+        void writeHeader(int appVersion, int valueCount) throws IOException {
+            BinaryJournal.writeHeader(out, appVersion, valueCount);
+        }
+
+        @Override
+        void writeClean(String key, long[] lengths) throws IOException {
+            BinaryJournal.writeRecord(out, BinaryJournal.CLEAN, key);
+            for (long length : lengths) {
+                out.writeLong(length);
+            }
+        }
+
+        @Override
+        void writeDirty(String key) throws IOException {
+            BinaryJournal.writeRecord(out, BinaryJournal.DIRTY, key);
+        }
+
+        @Override
+        void writeRemove(String key) throws IOException {
+            BinaryJournal.writeRecord(out, BinaryJournal.REMOVE, key);
+        }
+
+        @Override
+        void writeRead(String key) throws IOException {
+            BinaryJournal.writeRecord(out, BinaryJournal.READ, key);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, in memory LRU cache used as the front tier of {@link ParcelDiskCache}. Each
+ * entry is weighed by the byte size of its serialized form so that the memory budget roughly
+ * matches what the same entries take on disk.
+ *
+ * @param <T> Value type.
+ */
+final class MemoryCache<T> {
+    private final LinkedHashMap<String, Node<T>> entries = new LinkedHashMap<>(0, 0.75f, true);
+    private final long maxSize;
+    private long size;
+
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    MemoryCache(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the value for {@code key} and moves it to the head of the LRU queue, or null if
+     * it is not cached.
+     */
+    synchronized T get(String key) {
+        final Node<T> node = entries.get(key);
+        if (node == null) {
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return node.value;
+    }
+
+    /**
+     * Caches {@code value} for {@code key}, evicting the least recently used entries until the
+     * cache fits in its max size. Values heavier than the max size are not cached at all.
+     *
+     * @param weight Byte size of the serialized value.
+     */
+    synchronized void put(String key, T value, long weight) {
+        final Node<T> previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.weight;
+        }
+        if (weight > maxSize) {
+            return;
+        }
+        putCount++;
+        entries.put(key, new Node<>(value, weight));
+        size += weight;
+        trimToSize();
+    }
+
+    synchronized void remove(String key) {
+        final Node<T> previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.weight;
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized CacheStats stats() {
+        return new CacheStats(hitCount, missCount, putCount, evictionCount, size, maxSize);
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Node<T>>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().weight;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private static final class Node<T> {
+        private final T value;
+        private final long weight;
+
+        private Node(T value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -25,19 +25,15 @@ import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Cache implementation to store {@link Parcelable} objects.
@@ -50,61 +46,63 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
 
     private static final String LIST = "list";
     private static final String PARCELABLE = "parcelable";
-    private static final String VALIDATE_KEY_REGEX = "[a-z0-9_-]{1,5}";
-    private static final int MAX_KEY_SYMBOLS = 120;
+    /**
+     * Suffix of the cache directory, changed whenever the key scheme or the entry format changes so
+     * that entries written by an older scheme are never read back.
+     */
+    private static final String FORMAT_SUFFIX = "-v2";
+    private static final int MAX_PENDING_WRITES = 64;
     private final ClassLoader classLoader;
-    private final Executor storeExecutor;
     private DiskLruCache cache;
+    private final AsyncWriteQueue writeQueue;
+    // Keyed by the original key rather than its hash, which can collide.
+    @Nullable
+    private final MemoryCache<T> memoryCache;
     private boolean saveInUI = true;
 
-    private ParcelDiskCache(Context context, ClassLoader classLoader, String name, long maxSize) throws IOException {
+    private ParcelDiskCache(Context context, ClassLoader classLoader, String name, long maxSize, long memoryCacheSize) throws IOException {
         File cacheDir = context.getExternalCacheDir();
         if (cacheDir == null) {
             cacheDir = context.getCacheDir();
         }
         this.classLoader = classLoader;
-        storeExecutor = Executors.newSingleThreadExecutor();
-        File dir = new File(cacheDir, name);
+        deleteLegacyCache(new File(cacheDir, name));
+        File dir = new File(cacheDir, name + FORMAT_SUFFIX);
         int version = getVersionCode(context) + Build.VERSION.SDK_INT;
-        this.cache = DiskLruCache.open(dir, version, 1, maxSize);
+        this.cache = DiskLruCache.open(dir, version, 1, maxSize, true);
+        this.memoryCache = memoryCacheSize > 0 ? new MemoryCache<>(memoryCacheSize) : null;
+        this.writeQueue = new AsyncWriteQueue(cache, Executors.newSingleThreadExecutor(), MAX_PENDING_WRITES);
     }
 
     public static <T extends Parcelable> ParcelDiskCache<T> open(Context context, ClassLoader classLoader, String name, long maxSize) throws IOException {
-        return new ParcelDiskCache<>(context, classLoader, name, maxSize);
+        return new ParcelDiskCache<>(context, classLoader, name, maxSize, 0);
     }
 
-    private static void saveValue(DiskLruCache cache, Parcel value, String key) {
-        if (cache == null) return;
-        key = key.toLowerCase();
-        try {
-            final String skey = key.intern();
-            synchronized (skey) {
-                DiskLruCache.Editor editor = cache.edit(key);
-                OutputStream outputStream = editor.newOutputStream(0);
-                writeBytesToStream(outputStream, value.marshall());
-                editor.commit();
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            value.recycle();
-        }
+    /**
+     * Opens a cache that additionally keeps recently used values in memory, so that repeated
+     * lookups skip the disk read and unmarshalling. Values returned from memory are shared between
+     * callers and must not be modified.
+     *
+     * @param memoryCacheSize Max serialized byte size of values to hold in memory.
+     */
+    public static <T extends Parcelable> ParcelDiskCache<T> open(Context context, ClassLoader classLoader, String name, long maxSize, long memoryCacheSize) throws IOException {
+        return new ParcelDiskCache<>(context, classLoader, name, maxSize, memoryCacheSize);
     }
 
-    private static byte[] getBytesFromStream(InputStream is) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    /**
+     * Deletes the cache written with the old key scheme, which stripped every character outside
+     * {@code [a-z0-9_-]} and could not be mapped back to the original keys.
+     */
+    private static void deleteLegacyCache(File legacyDir) {
+        if (!legacyDir.isDirectory()) {
+            return;
+        }
         try {
-            byte[] data = new byte[1024];
-            int count;
-            while ((count = is.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, count);
-            }
-            buffer.flush();
-            return buffer.toByteArray();
-        } finally {
-            is.close();
-            buffer.close();
-
+            DiskCacheUtil.deleteContents(legacyDir);
+            //noinspection ResultOfMethodCallIgnored
+            legacyDir.delete();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
@@ -126,43 +124,63 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
     }
 
     public T set(String key, T value) {
-        key = validateKey(key);
+        final String cacheKey = CacheKeys.hash(key);
         Parcel parcel = Parcel.obtain();
+        parcel.writeString(key);
         parcel.writeString(PARCELABLE);
         parcel.writeParcelable(value, 0);
-        if (saveInUI) {
-            saveValue(cache, parcel, key);
-        } else {
-            storeExecutor.execute(new StoreParcelableValueTask(cache, parcel, key));
+        if (memoryCache != null) {
+            memoryCache.put(key, value, parcel.dataSize());
         }
+        save(cacheKey, parcel);
         return value;
     }
 
     public void set(String key, List<T> values) {
-        key = validateKey(key);
+        final String cacheKey = CacheKeys.hash(key);
         Parcel parcel = Parcel.obtain();
+        parcel.writeString(key);
         parcel.writeString(LIST);
         parcel.writeList(values);
+        if (memoryCache != null) {
+            memoryCache.remove(key);
+        }
+        save(cacheKey, parcel);
+    }
+
+    private void save(String key, Parcel parcel) {
+        final byte[] bytes;
+        try {
+            bytes = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
         if (saveInUI) {
-            saveValue(cache, parcel, key);
+            AsyncWriteQueue.write(cache, key, bytes);
         } else {
-            storeExecutor.execute(new StoreParcelableValueTask(cache, parcel, key));
+            writeQueue.put(key, bytes);
         }
     }
 
     public T get(String key) {
-        key = validateKey(key);
-        Parcel parcel = getParcel(key);
+        final String cacheKey = CacheKeys.hash(key);
+        if (memoryCache != null) {
+            final T cached = memoryCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Parcel parcel = getParcel(cacheKey);
         if (parcel != null) {
             try {
-                final String type = parcel.readString();
-                if (type != null && !type.equals(PARCELABLE)) {
-                    throw new IllegalAccessError("Parcel doesn't contain parcelable data");
+                if (!key.equals(parcel.readString())) {
+                    return null; // Hash collision with another key.
                 }
-                if (type != null && type.equals(LIST)) {
-                    throw new IllegalAccessError("get list data with getList method");
+                final T value = readValue(parcel);
+                if (memoryCache != null && value != null) {
+                    memoryCache.put(key, value, parcel.dataSize());
                 }
-                return parcel.readParcelable(classLoader);
+                return value;
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
@@ -172,21 +190,37 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
         return null;
     }
 
-    private Parcel getParcel(String key) {
-        key = validateKey(key);
-        byte[] value = null;
-        DiskLruCache.Snapshot snapshot = null;
-        try {
-            snapshot = cache.get(key);
-            if (snapshot == null) {
-                return null;
-            }
-            value = getBytesFromStream(snapshot.getInputStream(0));
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            if (snapshot != null) {
-                snapshot.close();
+    private T readValue(Parcel parcel) {
+        final String type = parcel.readString();
+        if (type != null && !type.equals(PARCELABLE)) {
+            throw new IllegalAccessError("Parcel doesn't contain parcelable data");
+        }
+        if (type != null && type.equals(LIST)) {
+            throw new IllegalAccessError("get list data with getList method");
+        }
+        return parcel.readParcelable(classLoader);
+    }
+
+    /**
+     * Returns the parcel stored for an already hashed {@code cacheKey}, positioned at the original
+     * key it was stored with.
+     */
+    private Parcel getParcel(String cacheKey) {
+        byte[] value = writeQueue.get(cacheKey);
+        if (value == null) {
+            DiskLruCache.Snapshot snapshot = null;
+            try {
+                snapshot = cache.get(cacheKey);
+                if (snapshot == null) {
+                    return null;
+                }
+                value = DiskCacheUtil.readExactly(snapshot.getInputStream(0), snapshot.getLength(0));
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (snapshot != null) {
+                    snapshot.close();
+                }
             }
         }
         Parcel parcel = Parcel.obtain();
@@ -197,31 +231,14 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
         return parcel;
     }
 
-    private String validateKey(String key) {
-        Matcher keyMatcher = getPattern(VALIDATE_KEY_REGEX).matcher(key);
-        StringBuilder newKey = new StringBuilder();
-        while (keyMatcher.find()) {
-            String group = keyMatcher.group();
-            if (newKey.length() + group.length() > MAX_KEY_SYMBOLS) {
-                break;
-            }
-
-            newKey.append(group);
-        }
-        return newKey.toString().toLowerCase();
-    }
-
-    public Pattern getPattern(String bodyRegex) {
-        int flags = Pattern.MULTILINE | Pattern.DOTALL | Pattern.CASE_INSENSITIVE;
-        return Pattern.compile(bodyRegex, flags);
-    }
-
     public List<T> getList(String key, Class itemClass) {
-        key = validateKey(key);
         ArrayList<T> res = new ArrayList<>();
-        Parcel parcel = getParcel(key);
+        Parcel parcel = getParcel(CacheKeys.hash(key));
         if (parcel != null) {
             try {
+                if (!key.equals(parcel.readString())) {
+                    return res; // Hash collision with another key.
+                }
                 String type = parcel.readString();
                 if (type.equals(PARCELABLE)) {
                     throw new IllegalAccessError("Get not a list data with get method");
@@ -244,9 +261,13 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
     }
 
     public boolean remove(String key) {
-        key = validateKey(key);
+        final String cacheKey = CacheKeys.hash(key);
+        if (memoryCache != null) {
+            memoryCache.remove(key);
+        }
+        writeQueue.remove(cacheKey);
         try {
-            return cache.remove(key.toLowerCase());
+            return cache.remove(cacheKey);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -257,6 +278,10 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
         return getAll(null);
     }
 
+    /**
+     * Returns all values stored with a key starting with {@code prefix}, or every value if
+     * {@code prefix} is empty.
+     */
     public List<T> getAll(String prefix) {
         List<T> list = new ArrayList<>(1);
         File dir = cache.getDirectory();
@@ -265,11 +290,22 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
             list = new ArrayList<>(files.length);
             for (File file : files) {
                 String fileName = file.getName();
-                if ((!TextUtils.isEmpty(prefix) && fileName.startsWith(prefix) && fileName.indexOf(".") > 0)
-                        || (TextUtils.isEmpty(prefix) && fileName.indexOf(".") > 0)) {
-                    String key = fileName.substring(0, fileName.indexOf("."));
-                    T value = get(key);
-                    list.add(value);
+                if (!fileName.endsWith(".0")) {
+                    continue;
+                }
+                Parcel parcel = getParcel(fileName.substring(0, fileName.length() - 2));
+                if (parcel == null) {
+                    continue;
+                }
+                try {
+                    String key = parcel.readString();
+                    if (key != null && (TextUtils.isEmpty(prefix) || key.startsWith(prefix))) {
+                        list.add(readValue(parcel));
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    parcel.recycle();
                 }
             }
         }
@@ -277,6 +313,10 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
     }
 
     public void clear() {
+        if (memoryCache != null) {
+            memoryCache.clear();
+        }
+        writeQueue.clear();
         try {
             cache.delete();
         } catch (IOException e) {
@@ -285,10 +325,13 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
     }
 
     public boolean exists(String key) {
-        key = validateKey(key);
+        final String cacheKey = CacheKeys.hash(key);
+        if (writeQueue.get(cacheKey) != null) {
+            return true;
+        }
         DiskLruCache.Snapshot snapshot = null;
         try {
-            snapshot = cache.get(key.toLowerCase());
+            snapshot = cache.get(cacheKey);
             return snapshot != null && snapshot.getLength(0) > 0;
         } catch (IOException e) {
             e.printStackTrace();
@@ -302,6 +345,7 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
 
     @Override
     public void close() {
+        flush();
         try {
             cache.close();
         } catch (IOException e) {
@@ -309,25 +353,39 @@ public final class ParcelDiskCache<T extends Parcelable> implements DiskCache<T>
         }
     }
 
+    /**
+     * Returns statistics of the in memory tier, or null if this cache was opened without one.
+     */
+    @Nullable
+    public CacheStats getMemoryCacheStats() {
+        return memoryCache != null ? memoryCache.stats() : null;
+    }
+
+    /**
+     * Writes values to disk on the caller's thread. This is the default.
+     */
     public void shouldSaveInUI() {
+        flush();
         this.saveInUI = true;
     }
 
-    private static class StoreParcelableValueTask implements Runnable {
-
-        private final DiskLruCache cache;
-        private final Parcel value;
-        private final String key;
-
-        StoreParcelableValueTask(DiskLruCache cache, Parcel value, String key) {
-            this.value = value;
-            this.key = key;
-            this.cache = cache;
-        }
+    /**
+     * Writes values to disk on a background thread. Values are readable through {@link #get} as
+     * soon as {@link #set} returns, and a value written again before reaching the disk is written
+     * only once. Use {@link #flush()} to wait for pending writes.
+     */
+    public void shouldSaveInBackground() {
+        this.saveInUI = false;
+    }
 
-        @Override
-        public void run() {
-            saveValue(cache, value, key);
+    /**
+     * Blocks until all values set so far are written to disk.
+     */
+    public void flush() {
+        try {
+            writeQueue.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
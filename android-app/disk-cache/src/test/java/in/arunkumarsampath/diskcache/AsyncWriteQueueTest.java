@@ -0,0 +1,159 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AsyncWriteQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private DiskLruCache cache;
+    private ManualExecutor executor;
+    private AsyncWriteQueue writeQueue;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("cache");
+        cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        executor = new ManualExecutor();
+        writeQueue = new AsyncWriteQueue(cache, executor, 2);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    @Test
+    public void lastWriteWinsAndIsReadableBeforeCommit() throws IOException {
+        writeQueue.put("a", bytes(1));
+        writeQueue.put("b", bytes(2));
+        writeQueue.put("a", bytes(3));
+
+        assertEquals(2, executor.tasks.size());
+        assertArrayEquals(bytes(3), writeQueue.get("a"));
+        assertNull(cache.get("a"));
+
+        executor.runAll();
+        assertNull(writeQueue.get("a"));
+        assertArrayEquals(bytes(3), read(cache, "a"));
+        assertArrayEquals(bytes(2), read(cache, "b"));
+    }
+
+    @Test
+    public void fullQueueWritesOnCallerThread() throws IOException {
+        writeQueue.put("a", bytes(1));
+        writeQueue.put("b", bytes(2));
+        writeQueue.put("c", bytes(3));
+
+        assertEquals(2, executor.tasks.size());
+        assertNull(writeQueue.get("c"));
+        assertArrayEquals(bytes(3), read(cache, "c"));
+    }
+
+    @Test
+    public void removeDropsPendingValue() throws IOException {
+        writeQueue.put("a", bytes(1));
+        writeQueue.remove("a");
+        executor.runAll();
+
+        assertNull(writeQueue.get("a"));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void crashMidQueueKeepsCommittedValuesOnly() throws IOException {
+        writeQueue.put("a", bytes(1));
+        writeQueue.put("b", bytes(2));
+        executor.runNext();
+
+        // Simulate dying half way through writing "c" with "b" still queued.
+        final DiskLruCache.Editor editor = cache.edit("c");
+        final OutputStream outputStream = editor.newOutputStream(0);
+        outputStream.write(bytes(4), 0, 2);
+        outputStream.close();
+
+        final DiskLruCache reopened = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        try {
+            assertArrayEquals(bytes(1), read(reopened, "a"));
+            assertNull(reopened.get("b"));
+            assertNull(reopened.get("c"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static byte[] bytes(int value) {
+        return new byte[]{(byte) value, (byte) value, (byte) value, (byte) value};
+    }
+
+    private static byte[] read(DiskLruCache cache, String key) throws IOException {
+        final DiskLruCache.Snapshot snapshot = cache.get(key);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            final byte[] bytes = new byte[(int) snapshot.getLength(0)];
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += snapshot.getInputStream(0).read(bytes, offset, bytes.length - offset);
+            }
+            return bytes;
+        } finally {
+            snapshot.close();
+        }
+    }
+
+    private static final class ManualExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.remove().run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
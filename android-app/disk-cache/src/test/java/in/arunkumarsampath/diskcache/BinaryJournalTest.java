@@ -0,0 +1,185 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryJournalTest {
+    private static final String HASHED_KEY = CacheKeys.hash("https://example.com");
+    private static final String PLAIN_KEY = "plain_key-1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private File journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("cache");
+        journalFile = new File(directory, DiskLruCache.JOURNAL_FILE);
+    }
+
+    @Test
+    public void binaryJournalRestoresEntries() throws IOException {
+        DiskLruCache cache = open(true);
+        set(cache, HASHED_KEY, "a", "bb");
+        set(cache, PLAIN_KEY, "ccc", "dddd");
+        set(cache, "removed", "e", "f");
+        cache.remove("removed");
+        cache.close();
+        assertTrue(BinaryJournal.isBinary(journalFile));
+
+        cache = open(true);
+        assertValue(cache, HASHED_KEY, "a", "bb");
+        assertValue(cache, PLAIN_KEY, "ccc", "dddd");
+        assertNull(cache.get("removed"));
+        assertEquals(10, cache.size());
+        cache.close();
+    }
+
+    @Test
+    public void hashedKeysUseFixedWidthRecords() throws IOException {
+        final DiskLruCache cache = open(true);
+        set(cache, HASHED_KEY, "a", "bb");
+        final long lengthAfterFirst = journalFile.length();
+        set(cache, CacheKeys.hash("https://example.org"), "a", "bb");
+        final long lengthAfterSecond = journalFile.length();
+        cache.close();
+
+        // DIRTY is the op byte and the 16 byte key, CLEAN additionally has two 8 byte lengths.
+        assertEquals(17 + 33, lengthAfterSecond - lengthAfterFirst);
+    }
+
+    @Test
+    public void textJournalIsMigratedToBinary() throws IOException {
+        DiskLruCache cache = open(false);
+        set(cache, HASHED_KEY, "a", "bb");
+        set(cache, PLAIN_KEY, "ccc", "dddd");
+        cache.close();
+        assertFalse(BinaryJournal.isBinary(journalFile));
+
+        cache = open(true);
+        assertTrue(BinaryJournal.isBinary(journalFile));
+        assertValue(cache, HASHED_KEY, "a", "bb");
+        assertValue(cache, PLAIN_KEY, "ccc", "dddd");
+        cache.close();
+
+        cache = open(false);
+        assertFalse(BinaryJournal.isBinary(journalFile));
+        assertValue(cache, HASHED_KEY, "a", "bb");
+        assertValue(cache, PLAIN_KEY, "ccc", "dddd");
+        cache.close();
+    }
+
+    @Test
+    public void truncatedRecordIsDropped() throws IOException {
+        DiskLruCache cache = open(true);
+        set(cache, HASHED_KEY, "a", "bb");
+        cache.close();
+
+        // Simulate a crash in the middle of appending a record.
+        final OutputStream out = new FileOutputStream(journalFile, true);
+        out.write(new byte[]{(byte) (BinaryJournal.CLEAN | BinaryJournal.PACKED_KEY), 1, 2, 3});
+        out.close();
+
+        cache = open(true);
+        assertValue(cache, HASHED_KEY, "a", "bb");
+        set(cache, PLAIN_KEY, "c", "d");
+        cache.close();
+
+        cache = open(true);
+        assertValue(cache, HASHED_KEY, "a", "bb");
+        assertValue(cache, PLAIN_KEY, "c", "d");
+        cache.close();
+    }
+
+    @Test
+    public void readRecordedAfterRemoveDoesNotRestoreKey() throws IOException {
+        DiskLruCache cache = open(true);
+        set(cache, HASHED_KEY, "a", "bb");
+        cache.remove(HASHED_KEY);
+        cache.close();
+
+        // A read that raced with the removal appends its record after the REMOVE.
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile, true));
+        BinaryJournal.writeRecord(out, BinaryJournal.READ, HASHED_KEY);
+        out.close();
+
+        cache = open(true);
+        assertNull(cache.get(HASHED_KEY));
+        assertFalse(cache.remove(HASHED_KEY));
+        cache.close();
+    }
+
+    @Test
+    public void corruptHeaderDiscardsCache() throws IOException {
+        DiskLruCache cache = open(true);
+        set(cache, HASHED_KEY, "a", "bb");
+        cache.close();
+
+        final RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+        file.seek(4);
+        file.write(BinaryJournal.VERSION + 1);
+        file.close();
+
+        cache = open(true);
+        assertNull(cache.get(HASHED_KEY));
+        cache.close();
+    }
+
+    private DiskLruCache open(boolean binaryJournal) throws IOException {
+        return DiskLruCache.open(directory, 1, 2, Long.MAX_VALUE, binaryJournal);
+    }
+
+    private static void set(DiskLruCache cache, String key, String a, String b) throws IOException {
+        final DiskLruCache.Editor editor = cache.edit(key);
+        editor.set(0, a);
+        editor.set(1, b);
+        editor.commit();
+    }
+
+    private static void assertValue(DiskLruCache cache, String key, String a, String b) throws IOException {
+        final DiskLruCache.Snapshot snapshot = cache.get(key);
+        assertNotNull(snapshot);
+        try {
+            assertEquals(a, snapshot.getString(0));
+            assertEquals(b, snapshot.getString(1));
+        } finally {
+            snapshot.close();
+        }
+    }
+}
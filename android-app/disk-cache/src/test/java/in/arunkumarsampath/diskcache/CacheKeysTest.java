@@ -0,0 +1,70 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CacheKeysTest {
+
+    @Test
+    public void keysAreLegalAndFixedLength() {
+        for (String url : new String[]{"", "a", "https://www.example.com/path?query=1#fragment", longUrl()}) {
+            final String key = CacheKeys.hash(url);
+            assertEquals(CacheKeys.LENGTH, key.length());
+            assertTrue(key, DiskLruCache.LEGAL_KEY_PATTERN.matcher(key).matches());
+            assertTrue(DiskLruCache.isLegalKey(key));
+        }
+    }
+
+    @Test
+    public void keysAreStable() {
+        assertEquals(CacheKeys.hash("https://a.com/x?y=1"), CacheKeys.hash("https://a.com/x?y=1"));
+    }
+
+    @Test
+    public void urlsThatUsedToCollideGetDistinctKeys() {
+        assertNotEquals(CacheKeys.hash("a.com/x?y=1"), CacheKeys.hash("a.com/xy1"));
+        assertNotEquals(CacheKeys.hash("https://A.com/Path"), CacheKeys.hash("https://a.com/path"));
+    }
+
+    @Test
+    public void noCollisionsAcrossManyUrls() {
+        final Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            keys.add(CacheKeys.hash("https://www.example.com/article/" + i));
+        }
+        assertEquals(100_000, keys.size());
+    }
+
+    private static String longUrl() {
+        final StringBuilder builder = new StringBuilder("https://www.example.com/");
+        for (int i = 0; i < 500; i++) {
+            builder.append("segment").append(i).append('/');
+        }
+        return builder.toString();
+    }
+}
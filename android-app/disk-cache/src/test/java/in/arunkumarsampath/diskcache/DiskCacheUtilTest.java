@@ -0,0 +1,77 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DiskCacheUtilTest {
+
+    @Test
+    public void readExactlyReadsWholeEntry() throws IOException {
+        final Random random = new Random(42);
+        for (int size : new int[]{0, 10 * 1024, 2 * 1024 * 1024}) {
+            final byte[] expected = new byte[size];
+            random.nextBytes(expected);
+            assertArrayEquals(expected, DiskCacheUtil.readExactly(new TrickleInputStream(expected), size));
+        }
+    }
+
+    @Test
+    public void readExactlyRejectsShortStream() throws IOException {
+        assertTrue(throwsEof(new ByteArrayInputStream(new byte[10]), 11));
+    }
+
+    @Test
+    public void readExactlyRejectsLongStream() throws IOException {
+        assertTrue(throwsEof(new ByteArrayInputStream(new byte[10]), 9));
+    }
+
+    private static boolean throwsEof(InputStream in, long length) throws IOException {
+        try {
+            DiskCacheUtil.readExactly(in, length);
+            return false;
+        } catch (EOFException expected) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns at most 1000 bytes per read, like a file stream may.
+     */
+    private static final class TrickleInputStream extends ByteArrayInputStream {
+        TrickleInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1000));
+        }
+    }
+}
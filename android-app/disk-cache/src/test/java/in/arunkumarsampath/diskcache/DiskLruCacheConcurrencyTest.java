@@ -0,0 +1,222 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DiskLruCacheConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int KEYS = 16;
+    private static final int OPERATIONS = 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiskLruCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = DiskLruCache.open(folder.newFolder("cache"), 1, 1, Long.MAX_VALUE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    @Test
+    public void concurrentReadsAndWritesSeeCompleteValues() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        exercise(new Random(seed));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long expectedSize = 0;
+        for (int k = 0; k < KEYS; k++) {
+            final DiskLruCache.Snapshot snapshot = cache.get("key" + k);
+            if (snapshot != null) {
+                expectedSize += snapshot.getLength(0);
+                assertConsistent("key" + k, snapshot);
+            }
+        }
+        assertEquals(expectedSize, cache.size());
+    }
+
+    @Test
+    public void valuesSurviveReopenAfterConcurrentReads() throws Exception {
+        write("key", value("key", 1));
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < OPERATIONS; i++) {
+                            final DiskLruCache.Snapshot snapshot = cache.get("key");
+                            assertNotNull(snapshot);
+                            assertConsistent("key", snapshot);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final File directory = cache.getDirectory();
+        cache.close();
+        cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+        final DiskLruCache.Snapshot snapshot = cache.get("key");
+        assertNotNull(snapshot);
+        assertConsistent("key", snapshot);
+    }
+
+    @Test
+    public void readsDuringJournalRebuildsSucceed() throws Exception {
+        final int keys = 4000;
+        for (int k = 0; k < keys; k++) {
+            write("key" + k, value("key" + k, 8));
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final Random random = new Random(t);
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // Enough reads for several journal rebuilds.
+                        for (int i = 0; i < 5 * keys / THREADS; i++) {
+                            final String key = "key" + random.nextInt(keys);
+                            final DiskLruCache.Snapshot snapshot = cache.get(key);
+                            assertNotNull(snapshot);
+                            assertConsistent(key, snapshot);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void exercise(Random random) throws IOException {
+        for (int i = 0; i < OPERATIONS; i++) {
+            final String key = "key" + random.nextInt(KEYS);
+            final int action = random.nextInt(10);
+            if (action < 6) {
+                final DiskLruCache.Snapshot snapshot = cache.get(key);
+                if (snapshot != null) {
+                    assertConsistent(key, snapshot);
+                }
+            } else if (action < 9) {
+                write(key, value(key, 1 + random.nextInt(64)));
+            } else {
+                cache.remove(key);
+            }
+        }
+    }
+
+    private void write(String key, byte[] value) throws IOException {
+        final DiskLruCache.Editor editor = cache.edit(key);
+        if (editor == null) {
+            // Another thread is editing this key.
+            return;
+        }
+        final OutputStream out = editor.newOutputStream(0);
+        try {
+            out.write(value);
+        } finally {
+            out.close();
+        }
+        editor.commit();
+    }
+
+    /**
+     * Values are the key's bytes repeated, so a torn read shows up as a length or content mismatch.
+     */
+    private static byte[] value(String key, int repeat) {
+        final byte[] keyBytes = key.getBytes(DiskCacheUtil.UTF_8);
+        final byte[] value = new byte[keyBytes.length * repeat];
+        for (int i = 0; i < repeat; i++) {
+            System.arraycopy(keyBytes, 0, value, i * keyBytes.length, keyBytes.length);
+        }
+        return value;
+    }
+
+    private static void assertConsistent(String key, DiskLruCache.Snapshot snapshot) throws IOException {
+        try {
+            final InputStream in = snapshot.getInputStream(0);
+            final byte[] bytes = DiskCacheUtil.readExactly(in, snapshot.getLength(0));
+            final byte[] keyBytes = key.getBytes(DiskCacheUtil.UTF_8);
+            assertTrue(bytes.length > 0 && bytes.length % keyBytes.length == 0);
+            for (int i = 0; i < bytes.length; i++) {
+                assertEquals(keyBytes[i % keyBytes.length], bytes[i]);
+            }
+        } finally {
+            snapshot.close();
+        }
+    }
+}
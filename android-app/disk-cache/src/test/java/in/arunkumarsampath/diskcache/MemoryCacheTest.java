@@ -0,0 +1,80 @@
+/*
+ * Lynket
+ *
+ * Copyright (C) 2019 Arunkumar
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package in.arunkumarsampath.diskcache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MemoryCacheTest {
+
+    @Test
+    public void readThroughCountsHitsAndMisses() {
+        final MemoryCache<String> cache = new MemoryCache<>(100);
+        assertNull(cache.get("a"));
+        cache.put("a", "A", 10);
+        assertEquals("A", cache.get("a"));
+
+        final CacheStats stats = cache.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+        assertEquals(10, stats.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByWeight() {
+        final MemoryCache<String> cache = new MemoryCache<>(100);
+        cache.put("a", "A", 40);
+        cache.put("b", "B", 40);
+        cache.get("a");
+        cache.put("c", "C", 40);
+
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        assertEquals(1, cache.stats().evictionCount());
+        assertEquals(80, cache.stats().size());
+    }
+
+    @Test
+    public void oversizedValueIsNotCached() {
+        final MemoryCache<String> cache = new MemoryCache<>(100);
+        cache.put("a", "A", 10);
+        cache.put("a", "Huge", 200);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.stats().size());
+    }
+
+    @Test
+    public void removeAndClearInvalidate() {
+        final MemoryCache<String> cache = new MemoryCache<>(100);
+        cache.put("a", "A", 10);
+        cache.put("b", "B", 10);
+        cache.remove("a");
+        assertNull(cache.get("a"));
+        assertEquals(10, cache.stats().size());
+
+        cache.clear();
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.stats().size());
+    }
+}